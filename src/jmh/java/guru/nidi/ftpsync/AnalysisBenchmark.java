@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading and saving the sync state, with 1000 files per directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class AnalysisBenchmark {
+    @Param({"10000", "100000", "1000000", "10000000"})
+    private int entries;
+
+    private File dir;
+    private File syncFile;
+    private File target;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("ftpsync-bench").toFile();
+        syncFile = new File(dir, "state.sync");
+        target = new File(dir, "target.sync");
+        StateFile.write(syncFile, entries(entries));
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Opens the state as a sync does before it starts.
+     */
+    @Benchmark
+    public boolean open() throws IOException {
+        try (final Analysis analysis = new Analysis(syncFile, false)) {
+            return analysis.isEmpty();
+        }
+    }
+
+    /**
+     * Reads all entries, as a compaction does.
+     */
+    @Benchmark
+    public long load() throws IOException {
+        long sum = 0;
+        try (final StateFile state = StateFile.open(syncFile)) {
+            for (Map.Entry<String, FileState> entry : state) {
+                sum += entry.getValue().getHash();
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public void save() throws IOException {
+        StateFile.write(target, entries(entries));
+    }
+
+    @Benchmark
+    public int children() throws IOException {
+        try (final Analysis analysis = new Analysis(syncFile, false)) {
+            return analysis.children(String.format("/d%05d", entries / 1001 / 2)).size();
+        }
+    }
+
+    /**
+     * @return the entries sorted by name, a directory entry followed by 1000 files.
+     */
+    static Iterator<Map.Entry<String, FileState>> entries(final int count) {
+        return new Iterator<Map.Entry<String, FileState>>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < count;
+            }
+
+            @Override
+            public Map.Entry<String, FileState> next() {
+                final int dir = i / 1001;
+                final int file = i % 1001;
+                i++;
+                return file == 0
+                        ? new AbstractMap.SimpleEntry<>(String.format("/d%05d", dir), FileState.directory())
+                        : new AbstractMap.SimpleEntry<>(String.format("/d%05d/file-%04d.html", dir, file),
+                        new FileState(i * 31L, 1000 + i, 1400000000000L + i, i));
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checksums of files of different sizes. The files are in the page cache, so this measures the hashing itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HasherBenchmark {
+    @Param({"1024", "65536", "1048576", "67108864"})
+    private int size;
+
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = createFile(size);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public long adler() throws IOException {
+        return Hasher.adler(file);
+    }
+
+    static File createFile(int size) throws IOException {
+        final File file = File.createTempFile("ftpsync-bench", ".bin");
+        final byte[] data = new byte[Math.min(size, 1024 * 1024)];
+        new Random(size).nextBytes(data);
+        try (final OutputStream out = new FileOutputStream(file)) {
+            for (int written = 0; written < size; written += data.length) {
+                out.write(data, 0, Math.min(data.length, size - written));
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import guru.nidi.ftpsync.fs.FileSystem;
+import guru.nidi.ftpsync.fs.FileSystemFactory;
+import guru.nidi.ftpsync.fs.SimulatedFileSystem;
+import guru.nidi.ftpsync.fs.Simulation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Syncs a local directory to a {@link Simulation} and prints the round trips and the time used.
+ * A first sync uploads everything, a second one finds nothing to do.
+ * Usage: <code>SyncSimulation &lt;latency ms&gt; &lt;jitter ms&gt; &lt;bandwidth bytes/s&gt; [ftpsync options] &lt;sourceDir&gt;</code>
+ */
+public class SyncSimulation {
+    private SyncSimulation() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            throw new IllegalArgumentException("Latency, jitter, bandwidth and source directory needed");
+        }
+        final Simulation simulation = new Simulation(Long.parseLong(args[0]), Long.parseLong(args[1]), Long.parseLong(args[2]));
+        final List<String> options = new ArrayList<>(Arrays.asList(args).subList(3, args.length));
+        options.addAll(Arrays.asList("-p", "simulated", "sim@simulation:/"));
+        final Config config = new Config(options.toArray(new String[options.size()]));
+        final FileSystemFactory factory = new FileSystemFactory() {
+            @Override
+            public FileSystem create() {
+                return new SimulatedFileSystem(config.getRemoteDir(), simulation);
+            }
+        };
+        File syncFile = null;
+        try (final FtpSync sync = new FtpSync(config, factory)) {
+            syncFile = sync.getSyncFile();
+            run("Initial sync", sync, simulation);
+            run("Unchanged sync", sync, simulation);
+        } finally {
+            if (syncFile != null) {
+                syncFile.delete();
+            }
+        }
+    }
+
+    private static void run(String title, FtpSync sync, Simulation simulation) throws IOException {
+        simulation.resetCounters();
+        final long start = System.currentTimeMillis();
+        sync.sync();
+        System.out.printf("%s: %.1f s%n%s%n", title, (System.currentTimeMillis() - start) / 1000.0, simulation.report());
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync.fs;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copying local files with streams and with the channel transfer used for local destinations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FsUtilsBenchmark {
+    @Param({"65536", "1048576", "67108864"})
+    private int size;
+
+    private File source;
+    private File target;
+
+    @Setup
+    public void setUp() throws IOException {
+        source = File.createTempFile("ftpsync-bench", ".bin");
+        target = File.createTempFile("ftpsync-bench", ".bin");
+        final byte[] data = new byte[Math.min(size, 1024 * 1024)];
+        new Random(size).nextBytes(data);
+        try (final OutputStream out = new FileOutputStream(source)) {
+            for (int written = 0; written < size; written += data.length) {
+                out.write(data, 0, Math.min(data.length, size - written));
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        source.delete();
+        target.delete();
+    }
+
+    @Benchmark
+    public void copy() throws IOException {
+        FsUtils.copy(new FileInputStream(source), new FileOutputStream(target));
+    }
+
+    @Benchmark
+    public void transfer() throws IOException {
+        FsUtils.transfer(source, 0, target);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync.fs;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing a wide tree (one directory with many files) and a deep one (many nested directories with few files).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LocalFileSystemBenchmark {
+    private static final AbstractFileFilter SELECT_ALL = new AbstractFileFilter() {
+        @Override
+        public boolean accept(AbstractFile abstractFile) {
+            return true;
+        }
+    };
+
+    @Param({"wide", "deep"})
+    private String shape;
+
+    private File dir;
+    private LocalFileSystem fileSystem;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("ftpsync-bench").toFile();
+        if (shape.equals("wide")) {
+            createFiles(dir, 10000);
+        } else {
+            File current = dir;
+            for (int i = 0; i < 200; i++) {
+                createFiles(current, 10);
+                current = new File(current, "sub");
+                current.mkdir();
+            }
+        }
+        fileSystem = new LocalFileSystem(dir.getAbsolutePath());
+    }
+
+    private void createFiles(File parent, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            new File(parent, "file-" + i + ".html").createNewFile();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fileSystem.deleteTree("/");
+    }
+
+    /**
+     * Lists all directories of the tree.
+     */
+    @Benchmark
+    public int listFiles() throws IOException {
+        return list("/");
+    }
+
+    private int list(String name) throws IOException {
+        int count = 0;
+        for (AbstractFile file : fileSystem.listFiles(name, SELECT_ALL)) {
+            count++;
+            if (file.isDirectory()) {
+                count += list(name + file.getName() + "/");
+            }
+        }
+        return count;
+    }
+}
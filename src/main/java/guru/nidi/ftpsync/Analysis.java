@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import guru.nidi.ftpsync.fs.AbstractFile;
+import guru.nidi.ftpsync.metrics.Timer;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static guru.nidi.ftpsync.Utils.withSlash;
+
+/**
+ * The state of the remote side: which entries exist and which files must be uploaded.
+ * The state of the last sync is looked up in the {@link StateFile}. Completed operations are recorded in memory and
+ * in a {@link Journal}, they are merged into the state file from time to time.
+ * All methods can be called concurrently.
+ */
+class Analysis implements Closeable {
+    private static final FileState REMOVED = FileState.ofHash(0);
+
+    private final boolean paranoid;
+    private final Timer hashing;
+    private final File syncFile;
+    private final StateFile saved;
+    private final Journal journal;
+    private final ConcurrentSkipListMap<String, FileState> changes = new ConcurrentSkipListMap<>();
+    private boolean interruptedRemoteAnalysis;
+
+    /**
+     * Loads the state of the last sync. If it has been interrupted, the operations it completed are replayed.
+     *
+     * @param paranoid if files should be hashed even if their metadata has not changed.
+     */
+    public Analysis(File syncFile, boolean paranoid) throws IOException {
+        this(syncFile, paranoid, new Timer());
+    }
+
+    /**
+     * @param hashing records the hashing of the local files.
+     */
+    public Analysis(File syncFile, boolean paranoid, Timer hashing) throws IOException {
+        this.paranoid = paranoid;
+        this.hashing = hashing;
+        this.syncFile = syncFile;
+        saved = StateFile.open(syncFile);
+        journal = new Journal(new File(syncFile.getPath() + ".journal"));
+        journal.replay(new Journal.Replay() {
+            @Override
+            public void remoteAnalysis() {
+                interruptedRemoteAnalysis = true;
+            }
+
+            @Override
+            public void deleted(String name) {
+                changes.put(name, REMOVED);
+            }
+
+            @Override
+            public void copied(String name, FileState state) {
+                changes.put(name, state);
+            }
+        });
+    }
+
+    private FileState get(String name) {
+        final FileState changed = changes.get(name);
+        if (changed != null) {
+            return changed == REMOVED ? null : changed;
+        }
+        return saved.get(name);
+    }
+
+    public boolean isEmpty() {
+        return !entries().hasNext();
+    }
+
+    /**
+     * @return if the last sync analyzed the remote side and has been interrupted.
+     */
+    public boolean isInterruptedRemoteAnalysis() {
+        return interruptedRemoteAnalysis;
+    }
+
+    /**
+     * Starts journaling the completed operations.
+     *
+     * @param remoteAnalysis if the remote side is analyzed in this run.
+     */
+    public void start(boolean remoteAnalysis) throws IOException {
+        synchronized (journal) {
+            save();
+            journal.start(remoteAnalysis);
+        }
+    }
+
+    /**
+     * @return the entries directly contained in the given directory, as recorded by the state.
+     */
+    public Map<String, FileState> children(String dir) {
+        final String prefix = withSlash(dir);
+        final Map<String, FileState> children = new HashMap<>();
+        Iterator<Map.Entry<String, FileState>> iter = entries(prefix);
+        while (iter.hasNext()) {
+            final Map.Entry<String, FileState> entry = iter.next();
+            if (!entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            final String rest = entry.getKey().substring(prefix.length());
+            final int slash = rest.indexOf('/');
+            if (slash < 0) {
+                if (rest.length() > 0) {
+                    children.put(rest, entry.getValue());
+                }
+            } else {
+                //skip the contents of the subdirectory, '0' is the character following '/'
+                final String child = rest.substring(0, slash);
+                if (!children.containsKey(child)) {
+                    children.put(child, FileState.directory());
+                }
+                iter = entries(prefix + child + "0");
+            }
+        }
+        return children;
+    }
+
+    /**
+     * @return all entries below the given directory as recorded by the state, contents before their directory.
+     * Directories end with a slash.
+     */
+    public List<String> entriesBelow(String dir) {
+        final String prefix = withSlash(dir);
+        final List<String> res = new ArrayList<>();
+        final Iterator<Map.Entry<String, FileState>> iter = entries(prefix);
+        while (iter.hasNext()) {
+            final Map.Entry<String, FileState> entry = iter.next();
+            if (!entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            res.add(entry.getValue().isDirectory() ? withSlash(entry.getKey()) : entry.getKey());
+        }
+        Collections.reverse(res);
+        return res;
+    }
+
+    /**
+     * Records that an entry of the state does not exist remotely.
+     * This is not journaled, an interrupted remote analysis is repeated anyway.
+     */
+    public void missingRemotely(String name) {
+        changes.put(name, REMOVED);
+    }
+
+    /**
+     * Decides for the listed files of a local directory if they must be uploaded.
+     * Files whose state is unknown are uploaded. The checksums are calculated in parallel.
+     *
+     * @return the uploads with the new state of the files. If only new data has been appended to a file,
+     * the upload starts at the end of the remote file.
+     */
+    public List<Upload> uploads(String dir, List<AbstractFile> listed) throws IOException {
+        final List<Upload> uploads = new ArrayList<>();
+        final List<String> candidates = new ArrayList<>();
+        final List<AbstractFile> files = new ArrayList<>();
+        for (final AbstractFile file : listed) {
+            final String name = withSlash(dir) + file.getName();
+            final FileState state = get(name);
+            if (paranoid || state == null || state.isDirectory() || !state.matches(file)) {
+                candidates.add(name);
+                files.add(file);
+            }
+        }
+        final long[] prefixes = new long[files.size()];
+        final long[] prefixHashes = new long[files.size()];
+        for (int i = 0; i < candidates.size(); i++) {
+            final FileState state = get(candidates.get(i));
+            prefixes[i] = state == null || state.isDirectory() ? -1 : state.getSize();
+            prefixHashes[i] = -1;
+        }
+        final FileState[] states = Hasher.fingerprint(files, prefixes, prefixHashes, hashing);
+        for (int i = 0; i < candidates.size(); i++) {
+            final String name = candidates.get(i);
+            final FileState state = get(name);
+            if (state != null && !state.isDirectory() && state.getHash() == states[i].getHash()) {
+                if (!state.equals(states[i])) {
+                    changes.put(name, states[i]);
+                }
+            } else {
+                //if only new data has been appended, the remote file can be completed
+                final boolean appended = prefixes[i] >= 0 && states[i].getSize() > state.getSize() && prefixHashes[i] == state.getHash();
+                final AbstractFile file = files.get(i);
+                uploads.add(new Upload(name, file.asFile(), appended ? state.getSize() : 0, states[i], file.getModified()));
+            }
+        }
+        return uploads;
+    }
+
+    public boolean isDirectory(String name) {
+        final FileState state = get(name);
+        return state != null && state.isDirectory();
+    }
+
+    public boolean shouldCopy(String name) {
+        return get(name) == null;
+    }
+
+    /**
+     * @return if an interrupted run has already uploaded a part of this content.
+     */
+    public boolean isInterruptedUpload(String name, FileState state) {
+        final Long hash = journal.startedUpload(name);
+        return hash != null && hash == state.getHash();
+    }
+
+    /**
+     * Records that an upload starts, so an interruption can be continued later on.
+     */
+    public void uploading(String name, FileState state) throws IOException {
+        journal.uploading(name, state.getHash());
+    }
+
+    /**
+     * Records a completed remote deletion.
+     */
+    public void deleted(String name) throws IOException {
+        if (name.length() > 1 && name.endsWith("/")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        changes.put(name, REMOVED);
+        journal.deleted(name);
+        compactIfNeeded();
+    }
+
+    /**
+     * Records the completed remote deletion of a directory with all its contents.
+     */
+    public void deletedTree(String name) throws IOException {
+        for (String below : entriesBelow(name)) {
+            deleted(below);
+        }
+        deleted(name);
+    }
+
+    /**
+     * Records a completed upload or directory creation.
+     */
+    public void copied(String name, FileState state) throws IOException {
+        changes.put(name, state);
+        journal.copied(name, state);
+        compactIfNeeded();
+    }
+
+    private void compactIfNeeded() throws IOException {
+        synchronized (journal) {
+            if (journal.shouldCompact()) {
+                StateFile.write(syncFile, entries());
+                journal.compacted();
+            }
+        }
+    }
+
+    /**
+     * Writes the state and removes the journal. To be called when the sync has completed.
+     */
+    public void saveState() throws IOException {
+        synchronized (journal) {
+            save();
+            journal.finished();
+        }
+    }
+
+    /**
+     * Writes the state if it has changed or if the file still has an old format.
+     */
+    private void save() throws IOException {
+        if (!changes.isEmpty() || !saved.isCurrentFormat()) {
+            StateFile.write(syncFile, entries());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            journal.close();
+        } finally {
+            saved.close();
+        }
+    }
+
+    /**
+     * @return the saved state merged with the changes, sorted by name.
+     */
+    private Iterator<Map.Entry<String, FileState>> entries() {
+        return entries("");
+    }
+
+    /**
+     * @return the entries whose name is not smaller than the given one.
+     */
+    private Iterator<Map.Entry<String, FileState>> entries(String from) {
+        final Iterator<Map.Entry<String, FileState>> savedIter = saved.iterator(from);
+        final Iterator<Map.Entry<String, FileState>> changesIter = changes.tailMap(from).entrySet().iterator();
+        return new Iterator<Map.Entry<String, FileState>>() {
+            private Map.Entry<String, FileState> nextSaved = advance(savedIter);
+            private Map.Entry<String, FileState> nextChange = advance(changesIter);
+            private Map.Entry<String, FileState> next = findNext();
+
+            private Map.Entry<String, FileState> advance(Iterator<Map.Entry<String, FileState>> iter) {
+                return iter.hasNext() ? iter.next() : null;
+            }
+
+            private Map.Entry<String, FileState> findNext() {
+                while (nextSaved != null || nextChange != null) {
+                    final int cmp = nextSaved == null ? 1
+                            : nextChange == null ? -1
+                            : nextSaved.getKey().compareTo(nextChange.getKey());
+                    final Map.Entry<String, FileState> res;
+                    if (cmp < 0) {
+                        res = nextSaved;
+                        nextSaved = advance(savedIter);
+                    } else {
+                        if (cmp == 0) {
+                            nextSaved = advance(savedIter);
+                        }
+                        res = nextChange;
+                        nextChange = advance(changesIter);
+                    }
+                    if (res.getValue() != REMOVED) {
+                        return res;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<String, FileState> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                final Map.Entry<String, FileState> res = next;
+                next = findNext();
+                return res;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
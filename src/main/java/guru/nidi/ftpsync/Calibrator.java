@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import guru.nidi.ftpsync.fs.FileSystem;
+import guru.nidi.ftpsync.fs.FileSystemFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Finds the transfer settings with the best throughput by uploading a probe file with different settings.
+ * First the buffer size is chosen, then the socket buffer size with the chosen buffer size.
+ * Every probe uses a new connection, as the settings are applied when connecting.
+ */
+class Calibrator {
+    private static final String PROBE = "/.ftpsync-probe";
+    private static final int PROBE_SIZE = 4 * 1024 * 1024;
+    private static final int[] BUFFER_SIZES = {16 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024};
+    private static final int[] SOCKET_BUFFER_SIZES = {0, 256 * 1024, 1024 * 1024, 4 * 1024 * 1024};
+
+    private final Config config;
+    private final FileSystemFactory factory;
+
+    public Calibrator(Config config, FileSystemFactory factory) {
+        this.config = config;
+        this.factory = factory;
+    }
+
+    /**
+     * Sets the best settings on the config. If a probe fails, the configured settings are kept.
+     */
+    public void calibrate() throws IOException {
+        final int bufferSize = config.getBufferSize();
+        final int socketBufferSize = config.getSocketBufferSize();
+        final File probe = createProbe();
+        try {
+            config.setBufferSize(best(probe, BUFFER_SIZES, true));
+            config.setSocketBufferSize(best(probe, SOCKET_BUFFER_SIZES, false));
+            Utils.println("Calibrated: buffer size " + config.getBufferSize() + ", socket buffer size " + config.getSocketBufferSize());
+        } catch (IOException e) {
+            Utils.println("Calibration failed, using the configured settings: " + e);
+            config.setBufferSize(bufferSize);
+            config.setSocketBufferSize(socketBufferSize);
+        } finally {
+            probe.delete();
+        }
+    }
+
+    private int best(File probe, int[] sizes, boolean buffer) throws IOException {
+        int best = 0;
+        double bestThroughput = 0;
+        for (int size : sizes) {
+            if (buffer) {
+                config.setBufferSize(size);
+            } else {
+                config.setSocketBufferSize(size);
+            }
+            final double throughput = measure(probe);
+            Utils.println(String.format("Calibrating %s %d: %.1f MB/s",
+                    buffer ? "buffer size" : "socket buffer size", size, throughput / (1024 * 1024)));
+            if (throughput > bestThroughput) {
+                best = size;
+                bestThroughput = throughput;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the upload throughput in bytes/s.
+     */
+    private double measure(File probe) throws IOException {
+        try (final FileSystem fileSystem = factory.create()) {
+            try {
+                fileSystem.createDirectory("");
+            } catch (IOException e) {
+                //ignore, it exists already
+            }
+            final long start = System.nanoTime();
+            fileSystem.putFile(probe, PROBE);
+            final long time = Math.max(1, System.nanoTime() - start);
+            fileSystem.deleteFile(PROBE);
+            return probe.length() * 1e9 / time;
+        }
+    }
+
+    private File createProbe() throws IOException {
+        final File probe = File.createTempFile("ftpsync", ".probe");
+        final byte[] data = new byte[PROBE_SIZE];
+        new Random().nextBytes(data);
+        try (final OutputStream out = new FileOutputStream(probe)) {
+            out.write(data);
+        }
+        return probe;
+    }
+}
@@ -15,9 +15,13 @@
  */
 package guru.nidi.ftpsync;
 
+import guru.nidi.ftpsync.fs.BandwidthLimiter;
+import guru.nidi.ftpsync.fs.CompressionPolicy;
 import org.apache.commons.cli.*;
 
 import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -33,8 +37,25 @@ public class Config {
     private String identity;
     private boolean secure;
     private boolean forceRemoteAnalysis;
+    private boolean paranoid;
+    private boolean watch;
     private String localDir;
     private String remoteDir;
+    private boolean localTarget;
+    private int bufferSize;
+    private int socketBufferSize;
+    private boolean passive;
+    private boolean epsv;
+    private boolean tcpNoDelay;
+    private int sftpRequests;
+    private boolean calibrate;
+    private CompressionPolicy compression;
+    private boolean bulk;
+    private boolean remoteHashing;
+    private String metricsFile;
+    private BandwidthLimiter bandwidthLimiter;
+    private UploadScheduler.Policy uploadOrder;
+    private int connections;
 
     public Config(String[] args) {
         final Options options = createOptions();
@@ -42,12 +63,46 @@ public class Config {
             CommandLineParser parser = new BasicParser();
             CommandLine cmd = parser.parse(options, args);
             forceRemoteAnalysis = cmd.hasOption('f');
+            paranoid = cmd.hasOption("paranoid");
+            watch = cmd.hasOption("watch");
             password = cmd.getOptionValue('p');
             identity = cmd.getOptionValue('i');
-            if (password == null && identity == null) {
-                throw new IllegalArgumentException("Either password or identity must be given");
+            secure = cmd.hasOption('s') || identity != null;
+            bufferSize = Integer.parseInt(cmd.getOptionValue("buffer-size", "0"));
+            socketBufferSize = Integer.parseInt(cmd.getOptionValue("socket-buffer-size", "0"));
+            passive = cmd.hasOption("passive");
+            epsv = cmd.hasOption("epsv");
+            tcpNoDelay = cmd.hasOption("tcp-nodelay");
+            sftpRequests = Integer.parseInt(cmd.getOptionValue("sftp-requests", "16"));
+            calibrate = cmd.hasOption("calibrate");
+            if (bufferSize < 0 || socketBufferSize < 0 || sftpRequests < 0) {
+                throw new IllegalArgumentException("Buffer sizes and number of requests must not be negative");
+            }
+            if (cmd.hasOption("compress")) {
+                final String skipped = cmd.getOptionValue("compress-skip");
+                compression = new CompressionPolicy(
+                        Long.parseLong(cmd.getOptionValue("compress-min-size", "4096")),
+                        skipped == null ? CompressionPolicy.DEFAULT_SKIPPED : Arrays.asList(skipped.split(",")));
+            }
+            bulk = cmd.hasOption("bulk");
+            metricsFile = cmd.getOptionValue("metrics");
+            if (cmd.hasOption("limit")) {
+                bandwidthLimiter = BandwidthLimiter.parse(cmd.getOptionValue("limit"));
+            }
+            if (cmd.hasOption("order")) {
+                uploadOrder = uploadOrder(cmd.getOptionValue("order"));
+            }
+            remoteHashing = cmd.hasOption("remote-hash");
+            if (remoteHashing) {
+                if (!secure) {
+                    throw new IllegalArgumentException("Remote hashing needs SFTP");
+                }
+                forceRemoteAnalysis = true;
+            }
+            connections = Integer.parseInt(cmd.getOptionValue('c', "1"));
+            if (connections < 1) {
+                throw new IllegalArgumentException("Number of connections must be at least 1");
             }
-            secure = cmd.getOptionValue('s') != null || identity != null;
             final List<String> argList = cmd.getArgList();
             if (argList.size() != 2) {
                 throw new IllegalArgumentException("Source and destination directory needed");
@@ -59,16 +114,27 @@ public class Config {
             }
             String rawRemote = argList.get(1);
             final Matcher matcher = REMOTE.matcher(rawRemote);
-            if (!matcher.matches()) {
-                throw new IllegalArgumentException("Remote must have format <user>@<host>:<path>");
+            if (matcher.matches()) {
+                if (password == null && identity == null) {
+                    throw new IllegalArgumentException("Either password or identity must be given");
+                }
+                username = matcher.group(1);
+                host = matcher.group(2);
+                remoteDir = matcher.group(3);
+            } else {
+                //a local directory or a mounted file system
+                localTarget = true;
+                remoteDir = new File(rawRemote).getAbsolutePath();
+                final Path source = localDirFile.getCanonicalFile().toPath();
+                final Path target = new File(rawRemote).getCanonicalFile().toPath();
+                if (target.startsWith(source) || source.startsWith(target)) {
+                    throw new IllegalArgumentException("Source and destination directory must not contain each other");
+                }
             }
-            username = matcher.group(1);
-            host = matcher.group(2);
-            remoteDir = matcher.group(3);
         } catch (Exception e) {
             System.out.println(e.getMessage());
             HelpFormatter formatter = new HelpFormatter();
-            formatter.printHelp("java -jar ftpsync.jar <options> <sourceDir> <destDir>", options);
+            formatter.printHelp("java -jar ftpsync.jar <options> <sourceDir> <user>@<host>:<destDir>|<destDir>", options);
             System.exit(1);
         }
     }
@@ -79,9 +145,36 @@ public class Config {
         options.addOption(OptionBuilder.withDescription("The private key").isRequired(false).withArgName("private key").hasArg(true).create('i'));
         options.addOption(OptionBuilder.withDescription("If SFTP should be used").isRequired(false).withArgName("sftp").hasArg(false).create('s'));
         options.addOption(OptionBuilder.withDescription("Force remote analysis").isRequired(false).hasArg(false).create('f'));
+        options.addOption(OptionBuilder.withDescription("Hash all local files, even if their size and modification time have not changed").isRequired(false).hasArg(false).withLongOpt("paranoid").create());
+        options.addOption(OptionBuilder.withDescription("Keep running and sync local changes as soon as they happen").isRequired(false).hasArg(false).withLongOpt("watch").create());
+        options.addOption(OptionBuilder.withDescription("Number of parallel connections used to upload files, or parallel copies to a local destination (default 1)").isRequired(false).withArgName("count").hasArg(true).withLongOpt("connections").create('c'));
+        options.addOption(OptionBuilder.withDescription("Size of the buffers used to transfer data, for SFTP the size of the write requests (default: library default)").isRequired(false).withArgName("bytes").hasArg(true).withLongOpt("buffer-size").create());
+        options.addOption(OptionBuilder.withDescription("Size of the TCP send and receive buffers (default: system default)").isRequired(false).withArgName("bytes").hasArg(true).withLongOpt("socket-buffer-size").create());
+        options.addOption(OptionBuilder.withDescription("Use FTP passive mode").isRequired(false).hasArg(false).withLongOpt("passive").create());
+        options.addOption(OptionBuilder.withDescription("Use FTP passive mode with EPSV, also for IPv4").isRequired(false).hasArg(false).withLongOpt("epsv").create());
+        options.addOption(OptionBuilder.withDescription("Disable Nagle's algorithm on the control connection").isRequired(false).hasArg(false).withLongOpt("tcp-nodelay").create());
+        options.addOption(OptionBuilder.withDescription("Number of SFTP write requests sent without waiting for a reply (default 16)").isRequired(false).withArgName("count").hasArg(true).withLongOpt("sftp-requests").create());
+        options.addOption(OptionBuilder.withDescription("Upload probe files to find the buffer sizes with the best throughput").isRequired(false).hasArg(false).withLongOpt("calibrate").create());
+        options.addOption(OptionBuilder.withDescription("Compress the transferred data, with MODE Z for FTP if the server supports it, with zlib for SFTP").isRequired(false).hasArg(false).withLongOpt("compress").create());
+        options.addOption(OptionBuilder.withDescription("Smaller files are not compressed with FTP (default 4096)").isRequired(false).withArgName("bytes").hasArg(true).withLongOpt("compress-min-size").create());
+        options.addOption(OptionBuilder.withDescription("Comma separated extensions of files not compressed with FTP (default: common image, video and archive formats)").isRequired(false).withArgName("extensions").hasArg(true).withLongOpt("compress-skip").create());
+        options.addOption(OptionBuilder.withDescription("Upload small files as tar archives and delete whole directories with one command, needs shell access (SFTP only)").isRequired(false).hasArg(false).withLongOpt("bulk").create());
+        options.addOption(OptionBuilder.withDescription("Compare the checksums of the remote files with the local ones and upload the differing files, implies -f, needs shell access (SFTP only)").isRequired(false).hasArg(false).withLongOpt("remote-hash").create());
+        options.addOption(OptionBuilder.withDescription("Write the metrics of every sync as JSON to this file").isRequired(false).withArgName("file").hasArg(true).withLongOpt("metrics").create());
+        options.addOption(OptionBuilder.withDescription("Limit the upload rate of all connections together, in bytes/s with optional suffix k, m or g. Rates can depend on the time of day, e.g. 08:00-18:00=200k,0 (0 means unlimited)").isRequired(false).withArgName("rates").hasArg(true).withLongOpt("limit").create());
+        options.addOption(OptionBuilder.withDescription("Upload the files in this order once the analysis is complete: largest, smallest or recent (most recently modified)").isRequired(false).withArgName("policy").hasArg(true).withLongOpt("order").create());
         return options;
     }
 
+    private static UploadScheduler.Policy uploadOrder(String name) {
+        for (UploadScheduler.Policy policy : UploadScheduler.Policy.values()) {
+            if (policy.name().equalsIgnoreCase(name)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown upload order " + name + ", use largest, smallest or recent");
+    }
+
     public String getHost() {
         return host;
     }
@@ -98,6 +191,94 @@ public class Config {
         return identity;
     }
 
+    /**
+     * @return if the destination is a local directory instead of a remote host.
+     */
+    public boolean isLocalTarget() {
+        return localTarget;
+    }
+
+    /**
+     * @return the size of the buffers used for data transfers, 0 for the default.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @return the size of the TCP send and receive buffers, 0 for the default.
+     */
+    public int getSocketBufferSize() {
+        return socketBufferSize;
+    }
+
+    public void setSocketBufferSize(int socketBufferSize) {
+        this.socketBufferSize = socketBufferSize;
+    }
+
+    public boolean isPassive() {
+        return passive || epsv;
+    }
+
+    public boolean isEpsv() {
+        return epsv;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public int getSftpRequests() {
+        return sftpRequests;
+    }
+
+    public boolean isCalibrate() {
+        return calibrate;
+    }
+
+    /**
+     * @return which files to compress, null if nothing should be compressed.
+     */
+    public CompressionPolicy getCompression() {
+        return compression;
+    }
+
+    public boolean isBulk() {
+        return bulk;
+    }
+
+    /**
+     * @return if remote files should be verified by checksums calculated on the server.
+     */
+    public boolean isRemoteHashing() {
+        return remoteHashing;
+    }
+
+    /**
+     * @return the file to write the metrics to, null if they should not be written.
+     */
+    public String getMetricsFile() {
+        return metricsFile;
+    }
+
+    /**
+     * @return the limiter for the upload rate, null if it is unlimited.
+     */
+    public BandwidthLimiter getBandwidthLimiter() {
+        return bandwidthLimiter;
+    }
+
+    /**
+     * @return the order of the uploads, null if they are uploaded as soon as they are found.
+     */
+    public UploadScheduler.Policy getUploadOrder() {
+        return uploadOrder;
+    }
+
     public boolean isSecure() {
         return secure;
     }
@@ -106,6 +287,14 @@ public class Config {
         return forceRemoteAnalysis;
     }
 
+    public boolean isParanoid() {
+        return paranoid;
+    }
+
+    public boolean isWatch() {
+        return watch;
+    }
+
     public String getLocalDir() {
         return localDir;
     }
@@ -113,4 +302,8 @@ public class Config {
     public String getRemoteDir() {
         return remoteDir;
     }
+
+    public int getConnections() {
+        return connections;
+    }
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import guru.nidi.ftpsync.fs.FileSystem;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static guru.nidi.ftpsync.Utils.withSlash;
+
+/**
+ * Deletes remote entries concurrently over all connections.
+ * A directory is deleted by the thread that has deleted its last entry, so children always go before their parent.
+ * Directories end with a slash.
+ */
+class Deleter {
+    private final Analysis analysis;
+    private final Pipeline.Stage<String> stage;
+    private final ConcurrentMap<String, AtomicInteger> pending = new ConcurrentHashMap<>();
+    private final Set<String> trees = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    public Deleter(Pipeline pipeline, int threads, int capacity, final Analysis analysis) {
+        this.analysis = analysis;
+        stage = pipeline.stage("delete", threads, capacity, new Pipeline.Worker<String>() {
+            @Override
+            public String itemName(String item) {
+                return "delete " + item;
+            }
+
+            @Override
+            public long itemSize(String item) {
+                return 0;
+            }
+
+            @Override
+            public void processItem(FileSystem fileSystem, String item) throws IOException {
+                if (trees.remove(item)) {
+                    fileSystem.deleteTree(item);
+                    analysis.deletedTree(item);
+                } else {
+                    delete(fileSystem, item);
+                    analysis.deleted(item);
+                }
+                deleted(fileSystem, item);
+            }
+        });
+    }
+
+    public void deleteFile(String name) throws IOException {
+        stage.submit(name);
+    }
+
+    /**
+     * Deletes a directory as soon as the given number of its entries have been deleted.
+     * The entries must be submitted after this call.
+     */
+    public void deleteDirectory(String dir, int entries) throws IOException {
+        if (entries == 0) {
+            stage.submit(withSlash(dir));
+        } else {
+            pending.put(withSlash(dir), new AtomicInteger(entries));
+        }
+    }
+
+    /**
+     * Deletes a directory with all its contents in one operation. Only to be used if the file system supports it.
+     */
+    public void deleteTree(String dir) throws IOException {
+        trees.add(withSlash(dir));
+        stage.submit(withSlash(dir));
+    }
+
+    /**
+     * Deletes the given entries. A directory is deleted only after all its entries in the list.
+     *
+     * @param entries must contain all entries of the directories in it.
+     */
+    public void deleteAll(List<String> entries) throws IOException {
+        final Set<String> dirs = new HashSet<>();
+        for (String entry : entries) {
+            if (entry.endsWith("/")) {
+                dirs.add(entry);
+            }
+        }
+        //directories with entries are deleted by the thread deleting their last entry, never submitted.
+        //pending cannot tell them, workers remove a directory from it as soon as it is deleted
+        final Set<String> parents = new HashSet<>();
+        for (String entry : entries) {
+            final String parent = parent(entry);
+            if (dirs.contains(parent)) {
+                parents.add(parent);
+                final AtomicInteger count = pending.putIfAbsent(parent, new AtomicInteger(1));
+                if (count != null) {
+                    count.incrementAndGet();
+                }
+            }
+        }
+        for (String entry : entries) {
+            if (!parents.contains(entry)) {
+                stage.submit(entry);
+            }
+        }
+    }
+
+    /**
+     * Deletes the parent directories whose last entry has just been deleted.
+     */
+    private void deleted(FileSystem fileSystem, String name) throws IOException {
+        for (String dir = parent(name); ; dir = parent(dir)) {
+            final AtomicInteger count = pending.get(dir);
+            if (count == null || count.decrementAndGet() > 0) {
+                return;
+            }
+            pending.remove(dir);
+            delete(fileSystem, dir);
+            analysis.deleted(dir);
+        }
+    }
+
+    private static String parent(String name) {
+        final int pos = name.lastIndexOf('/', name.length() - 2);
+        return pos <= 0 ? "/" : name.substring(0, pos + 1);
+    }
+
+    /**
+     * Deletes a remote file or, if the name ends with a slash, an empty remote directory.
+     */
+    static void delete(FileSystem fileSystem, String name) throws IOException {
+        if (name.endsWith("/")) {
+            fileSystem.deleteDirectory(name);
+        } else {
+            fileSystem.deleteFile(name);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import guru.nidi.ftpsync.fs.AbstractFile;
+
+/**
+ * What is known about a synchronized file: its checksum and the metadata it had when the checksum was calculated.
+ * A size of -1 means the metadata is unknown and the file has to be hashed to be compared,
+ * a size of -2 marks a directory. If only the modification time is unknown, the size is still used to detect appends.
+ */
+class FileState {
+    static final long UNKNOWN = -1;
+    static final long DIRECTORY = -2;
+    /**
+     * Files modified less than this before being fingerprinted could be changed again within the resolution of
+     * the file system's timestamps, so their metadata is not trusted.
+     */
+    private static final long RACY_INTERVAL = 2000;
+
+    private final long hash;
+    private final long size;
+    private final long modified;
+    private final long key;
+
+    public FileState(long hash, long size, long modified, long key) {
+        this.hash = hash;
+        this.size = size;
+        this.modified = modified;
+        this.key = key;
+    }
+
+    public static FileState ofHash(long hash) {
+        return new FileState(hash, UNKNOWN, UNKNOWN, UNKNOWN);
+    }
+
+    public static FileState directory() {
+        return new FileState(0, DIRECTORY, UNKNOWN, UNKNOWN);
+    }
+
+    /**
+     * Takes the metadata of a local file as it has been listed. The listing should be done before the file is hashed.
+     */
+    public static FileState of(AbstractFile file, long hash) {
+        if (file.isDirectory()) {
+            return directory();
+        }
+        final long modified = file.getModified();
+        if (modified < 0 || System.currentTimeMillis() - modified < RACY_INTERVAL) {
+            return new FileState(hash, file.getSize(), UNKNOWN, UNKNOWN);
+        }
+        return new FileState(hash, file.getSize(), modified, fileKey(file.getFileKey()));
+    }
+
+    /**
+     * Older versions did not mark directories, they just had a checksum of 0.
+     */
+    public boolean isDirectory() {
+        return size == DIRECTORY || (size == UNKNOWN && hash == 0);
+    }
+
+    public FileState withHash(long hash) {
+        return new FileState(hash, size, modified, key);
+    }
+
+    /**
+     * @return if the file still has the same metadata as when this state was recorded.
+     */
+    public boolean matches(AbstractFile file) {
+        if (size < 0 || modified == UNKNOWN) {
+            return false;
+        }
+        return file.getSize() == size && file.getModified() == modified && fileKey(file.getFileKey()) == key;
+    }
+
+    private static long fileKey(Object key) {
+        if (key == null) {
+            return 0;
+        }
+        //FNV-1a, the key object itself is not serializable
+        long res = 0xcbf29ce484222325L;
+        final String s = key.toString();
+        for (int i = 0; i < s.length(); i++) {
+            res = (res ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return res;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final FileState state = (FileState) o;
+        return hash == state.hash && size == state.size && modified == state.modified && key == state.key;
+    }
+
+    @Override
+    public int hashCode() {
+        int res = (int) (hash ^ (hash >>> 32));
+        res = 31 * res + (int) (size ^ (size >>> 32));
+        res = 31 * res + (int) (modified ^ (modified >>> 32));
+        return 31 * res + (int) (key ^ (key >>> 32));
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getModified() {
+        return modified;
+    }
+
+    public long getKey() {
+        return key;
+    }
+}
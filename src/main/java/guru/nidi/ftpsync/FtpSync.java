@@ -18,50 +18,96 @@ package guru.nidi.ftpsync;
 import guru.nidi.ftpsync.cpmagic.MavenRepoClasspathEnhancer;
 import guru.nidi.ftpsync.fs.*;
 import guru.nidi.ftpsync.fs.FileSystem;
+import guru.nidi.ftpsync.metrics.Metrics;
+import guru.nidi.ftpsync.metrics.Timer;
 
 import java.io.*;
 import java.util.*;
-import java.util.zip.Adler32;
 
 /**
  *
  */
 public class FtpSync implements Closeable {
-    static {
-        final MavenRepoClasspathEnhancer enhancer = new MavenRepoClasspathEnhancer(FtpSync.class);
-        enhancer.enhanceClassLoader();
-    }
-
-    private static final AbstractFileFilter SELECT_FILES = new AbstractFileFilter() {
-        @Override
-        public boolean accept(AbstractFile abstractFile) {
-            return abstractFile.isFile();
-        }
-    };
-    private static final AbstractFileFilter SELECT_DIRS = new AbstractFileFilter() {
-        @Override
-        public boolean accept(AbstractFile abstractFile) {
-            return abstractFile.isDirectory() && !abstractFile.getName().equals(".") && !abstractFile.getName().equals("..");
-        }
-    };
+    private static final int QUEUE_SIZE = 1000;
+    private static final long RECONCILE_INTERVAL = 60 * 60 * 1000;
+    private static final long RETRY_DELAY = 60 * 1000;
 
-    private final FileSystem remoteFileSystem;
+    private final FileSystemPool remotePool;
+    private final DirectoryCache remoteListings = new DirectoryCache();
     private final FileSystem localFileSystem;
     private final boolean forceRemoteAnalysis;
+    private final boolean paranoid;
     private final File syncFile;
+    private final Metrics metrics = new Metrics();
+    private final File metricsFile;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final UploadScheduler.Policy uploadOrder;
 
     public FtpSync(Config config) throws IOException {
-        remoteFileSystem = config.isSecure()
-                ? new SftpFileSystem(config.getRemoteDir(), config)
-                : new FtpFileSystem(config.getRemoteDir(), config);
-        localFileSystem = new LocalFileSystem(config.getLocalDir());
+        this(config, connectionFactory(config));
+    }
+
+    /**
+     * @param connectionFactory opens the connections to the destination, e.g. to a simulated file system.
+     */
+    public FtpSync(Config config, final FileSystemFactory connectionFactory) throws IOException {
+        if (config.isCalibrate() && !config.isLocalTarget()) {
+            final long start = System.currentTimeMillis();
+            new Calibrator(config, connectionFactory).calibrate();
+            metrics.phase("calibration", System.currentTimeMillis() - start);
+        }
+        final FileSystemFactory meteredFactory = new FileSystemFactory() {
+            @Override
+            public FileSystem create() throws IOException {
+                final Timer timer = metrics.timer("remote.connect");
+                final long start = timer.start();
+                try {
+                    final FileSystem fileSystem = connectionFactory.create();
+                    timer.stop(start, 0);
+                    return new MeteredFileSystem(fileSystem, metrics, "remote");
+                } catch (IOException | RuntimeException e) {
+                    timer.failed();
+                    throw e;
+                }
+            }
+        };
+        final FileSystemFactory remoteFactory = new FileSystemFactory() {
+            @Override
+            public FileSystem create() throws IOException {
+                return new CachingFileSystem(new ResumingFileSystem(meteredFactory), remoteListings);
+            }
+        };
+        remotePool = new FileSystemPool(remoteFactory.create(), remoteFactory, config.getConnections());
+        localFileSystem = new MeteredFileSystem(new LocalFileSystem(config.getLocalDir()), metrics, "local");
+        metricsFile = config.getMetricsFile() == null ? null : new File(config.getMetricsFile());
+        bandwidthLimiter = config.getBandwidthLimiter();
+        uploadOrder = config.getUploadOrder();
+        if (bandwidthLimiter != null) {
+            Transfers.addListener(bandwidthLimiter);
+        }
         forceRemoteAnalysis = config.isForceRemoteAnalysis();
+        paranoid = config.isParanoid();
         final File local = new File(config.getLocalDir());
         syncFile = new File(local.getParentFile(),
-                sanitizeForFilename(config.getHost() + "-" + config.getRemoteDir() + "-" + local.getName() + ".sync"));
+                sanitizeForFilename((config.isLocalTarget() ? "local" : config.getHost()) + "-" + config.getRemoteDir() + "-" + local.getName() + ".sync"));
         if (!syncFile.exists()) {
             syncFile.createNewFile();
         }
+        metrics.register(syncFile.getName());
+    }
+
+    private static FileSystemFactory connectionFactory(final Config config) {
+        return new FileSystemFactory() {
+            @Override
+            public FileSystem create() throws IOException {
+                if (config.isLocalTarget()) {
+                    return new LocalFileSystem(config.getRemoteDir());
+                }
+                return config.isSecure()
+                        ? new SftpFileSystem(config.getRemoteDir(), config)
+                        : new FtpFileSystem(config.getRemoteDir(), config);
+            }
+        };
     }
 
     private String sanitizeForFilename(String s) {
@@ -76,178 +122,263 @@ public class FtpSync implements Closeable {
         return res.toString();
     }
 
+    /**
+     * @return the file storing the state of the remote side.
+     */
+    public File getSyncFile() {
+        return syncFile;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     public void close() throws IOException {
-        remoteFileSystem.close();
+        if (bandwidthLimiter != null) {
+            Transfers.removeListener(bandwidthLimiter);
+        }
+        metrics.close();
+        remotePool.close();
     }
 
     public static void main(String[] args) throws IOException {
-        try (final FtpSync sync = new FtpSync(new Config(args))) {
-            sync.sync();
+        //only the command line needs the dependencies added, tests and simulations have them on the classpath
+        new MavenRepoClasspathEnhancer(FtpSync.class).enhanceClassLoader();
+        final Config config = new Config(args);
+        try (final FtpSync sync = new FtpSync(config)) {
+            if (config.isWatch()) {
+                sync.watch();
+            } else {
+                sync.sync();
+            }
         }
     }
 
     public void sync() throws IOException {
-        try {
-            remoteFileSystem.createDirectory("");
-        } catch (IOException e) {
-            //ignore
-        }
-        final Analysis analysis = new Analysis(new InputStreamReader(new FileInputStream(syncFile), "utf-8"));
-        final FileSystem fsToAnalyze = (syncFile.length() == 0 || forceRemoteAnalysis)
-                ? remoteFileSystem
-                : localFileSystem;
-        analyze(fsToAnalyze, "/", analysis);
-        delete(analysis);
-        copy("/", analysis);
-        analysis.saveState(new OutputStreamWriter(new FileOutputStream(syncFile), "utf-8"));
-    }
-
-    public boolean analyze(FileSystem fileSystem, final String dir, final Analysis analysis) throws IOException {
-        final String target = fileSystem instanceof LocalFileSystem ? "local" : "remote";
-        System.out.println("Analyzing " + target + ": " + dir);
-        final boolean[] keepAny = new boolean[]{false};
-        Utils.doProgressively(fileSystem.listFiles(dir, SELECT_FILES), new Utils.ProgressWorker<AbstractFile>() {
-            @Override
-            public String itemName(AbstractFile item) {
-                return item.getName();
+        remoteListings.clear();
+        try (final Analysis analysis = openAnalysis()) {
+            final boolean remoteAnalysis = analysis.isEmpty() || forceRemoteAnalysis || analysis.isInterruptedRemoteAnalysis();
+            analysis.start(remoteAnalysis);
+            if (remoteAnalysis || analysis.shouldCopy("/")) {
+                createRoot(analysis);
             }
-
-            @Override
-            public void processItem(AbstractFile item) throws Exception {
-                keepAny[0] |= analysis.willKeepFile(localFileSystem.getBasedir(), withSlash(dir) + item.getName());
-            }
-        });
-        for (AbstractFile sub : fileSystem.listFiles(dir, SELECT_DIRS)) {
-            keepAny[0] |= analyze(fileSystem, withSlash(dir) + sub.getName(), analysis);
-        }
-        if (!keepAny[0]) {
-            analysis.addDirToDelete(dir);
+            sync(analysis, remoteAnalysis, Collections.singleton("/"), true);
+            saveState(analysis);
         }
-        return keepAny[0];
     }
 
-    public void delete(final Analysis analysis) throws IOException {
-        System.out.println("Deleting remote...");
-        Utils.doProgressively(analysis.getDeletes(), new Utils.ProgressWorker<String>() {
-            @Override
-            public String itemName(String item) {
-                return item;
+    private Analysis openAnalysis() throws IOException {
+        final long start = System.currentTimeMillis();
+        final Analysis analysis = new Analysis(syncFile, paranoid, metrics.timer("local.hash"));
+        metrics.phase("load", System.currentTimeMillis() - start);
+        return analysis;
+    }
+
+    private void saveState(Analysis analysis) throws IOException {
+        final long start = System.currentTimeMillis();
+        analysis.saveState();
+        metrics.phase("save", System.currentTimeMillis() - start);
+        writeMetrics();
+    }
+
+    private void writeMetrics() {
+        if (metricsFile != null) {
+            try {
+                metrics.writeJson(metricsFile);
+            } catch (IOException e) {
+                Utils.println("Could not write metrics: " + e);
             }
+        }
+    }
 
-            @Override
-            public void processItem(String item) throws Exception {
-                if (item.endsWith("/")) {
-                    remoteFileSystem.deleteDirectory(item);
-                } else {
-                    remoteFileSystem.deleteFile(item);
+    /**
+     * Keeps syncing until the process is killed. After a full sync, only the local directories that have changed
+     * are synced. A full sync is repeated from time to time to catch changes whose events have been lost.
+     * The connections are kept open all the time.
+     */
+    public void watch() throws IOException {
+        try (final Watcher watcher = new Watcher(localFileSystem.getBasedir())) {
+            while (true) {
+                try {
+                    sync();
+                    try (final Analysis analysis = openAnalysis()) {
+                        analysis.start(false);
+                        final long reconcile = System.currentTimeMillis() + RECONCILE_INTERVAL;
+                        Set<String> changed;
+                        while ((changed = watcher.changedDirectories(reconcile)) != null) {
+                            sync(analysis, false, changed, false);
+                            writeMetrics();
+                        }
+                        saveState(analysis);
+                    }
+                } catch (InterruptedIOException e) {
+                    throw e;
+                } catch (IOException e) {
+                    Utils.println("Sync failed, retrying: " + e);
+                    pause();
                 }
             }
-        });
+        }
     }
 
-    public void copy(final String dir, final Analysis analysis) throws IOException {
-        System.out.println("Copying to remote: " + dir);
+    private void pause() throws InterruptedIOException {
+        try {
+            Thread.sleep(RETRY_DELAY);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
 
-        if (analysis.shouldCopy(localFileSystem.getBasedir(), dir)) {
-            remoteFileSystem.createDirectory(dir);
+    private void sync(Analysis analysis, boolean remoteAnalysis, Collection<String> dirs, boolean recursive) throws IOException {
+        final Progress progress = Progress.start();
+        final Pipeline pipeline = new Pipeline(remotePool, progress);
+        try {
+            final Pipeline.Stage<Upload> uploads = uploadStage(pipeline, analysis);
+            final UploadBatcher batcher = canPutFiles()
+                    ? new UploadBatcher(uploads, bulkUploadStage(pipeline, analysis)) : null;
+            final Pipeline.Input<Upload> input = batcher == null ? uploads : batcher;
+            final UploadScheduler scheduler = uploadOrder == null ? null : new UploadScheduler(input, uploadOrder);
+            final Walker walker = new Walker(localFileSystem, remotePool, analysis, remoteAnalysis,
+                    new Deleter(pipeline, remotePool.size(), QUEUE_SIZE, analysis), scheduler == null ? input : scheduler);
+            final long start = System.currentTimeMillis();
+            walker.walk(dirs, recursive);
+            //flushing waits for room in the upload queues, this is transfer time
+            final long walked = System.currentTimeMillis();
+            metrics.phase("analysis", walked - start);
+            if (scheduler != null) {
+                scheduler.flush();
+            }
+            if (batcher != null) {
+                batcher.flush();
+            }
+            pipeline.finish();
+            metrics.phase("transfer", System.currentTimeMillis() - walked);
+        } finally {
+            pipeline.abort();
+            progress.stop();
+        }
+    }
+
+    /**
+     * Makes sure the remote base directory exists. Once it is recorded in the state, this is not checked again.
+     */
+    private void createRoot(Analysis analysis) throws IOException {
+        final FileSystem fileSystem = remotePool.acquire();
+        try {
+            fileSystem.createDirectory("");
+        } catch (IOException e) {
+            //ignore, it exists already
+        } finally {
+            remotePool.release(fileSystem);
         }
+        analysis.copied("/", FileState.directory());
+    }
 
-        Utils.doProgressively(localFileSystem.listFiles(dir, SELECT_FILES), new Utils.ProgressWorker<AbstractFile>() {
+    private Pipeline.Stage<Upload> uploadStage(Pipeline pipeline, final Analysis analysis) {
+        return pipeline.stage("upload", remotePool.size(), QUEUE_SIZE, new Pipeline.Worker<Upload>() {
             @Override
-            public String itemName(AbstractFile item) {
+            public String itemName(Upload item) {
                 return item.getName();
             }
 
             @Override
-            public void processItem(AbstractFile item) throws IOException {
-                final String fullname = withSlash(dir) + item.getName();
-                if (analysis.shouldCopy(localFileSystem.getBasedir(), fullname)) {
-                    remoteFileSystem.putFile(item.asFile(), fullname);
+            public long itemSize(Upload item) {
+                return item.getState().getSize() - item.getOffset();
+            }
+
+            @Override
+            public void processItem(FileSystem fileSystem, Upload item) throws IOException {
+                final long offset = uploadOffset(fileSystem, item, analysis);
+                if (offset > 0 || item.getState().getSize() >= ResumingFileSystem.RESUMABLE_SIZE) {
+                    if (offset == 0) {
+                        //a later run may only continue the upload if the remote file contains nothing else
+                        ResumingFileSystem.removeOld(fileSystem, item.getName());
+                    }
+                    analysis.uploading(item.getName(), item.getState());
                 }
+                if (offset > 0) {
+                    fileSystem.putFile(item.getFile(), item.getName(), offset);
+                } else {
+                    fileSystem.putFile(item.getFile(), item.getName());
+                }
+                analysis.copied(item.getName(), item.getState());
             }
         });
-
-        for (AbstractFile sub : localFileSystem.listFiles(dir, SELECT_DIRS)) {
-            copy(withSlash(dir) + sub.getName(), analysis);
-        }
     }
 
-    private static String withSlash(String s) {
-        return s.endsWith("/") ? s : (s + "/");
+    private boolean canPutFiles() throws IOException {
+        final FileSystem fileSystem = remotePool.acquire();
+        try {
+            return fileSystem.canPutFiles();
+        } finally {
+            remotePool.release(fileSystem);
+        }
     }
 
-    private static class Analysis {
-        private final Map<String, Long> keep = new HashMap<>();
-        private final Set<String> delete = new TreeSet<>(new Comparator<String>() {
+    /**
+     * Uploads many small files at once. The state is recorded as if they were uploaded one by one.
+     * The uploads are not journaled as started: the old remote versions are still there,
+     * and a failed batch is sent again as a whole.
+     */
+    private Pipeline.Stage<List<Upload>> bulkUploadStage(Pipeline pipeline, final Analysis analysis) {
+        return pipeline.stage("bulk-upload", remotePool.size(), QUEUE_SIZE, new Pipeline.Worker<List<Upload>>() {
             @Override
-            public int compare(String s1, String s2) {
-                int res = s2.length() - s1.length();
-                if (res == 0) {
-                    res = s2.compareTo(s1);
-                }
-                return res;
+            public String itemName(List<Upload> item) {
+                return item.size() + " files, " + item.get(0).getName() + "...";
             }
-        });
 
-        public Analysis(Reader sync) throws IOException {
-            try (final BufferedReader in = new BufferedReader(sync)) {
-                String line;
-                while ((line = in.readLine()) != null) {
-                    keep.put(line.substring(17), Long.parseLong(line.substring(0, 16), 16));
+            @Override
+            public long itemSize(List<Upload> item) {
+                long size = 0;
+                for (Upload upload : item) {
+                    size += upload.getState().getSize();
                 }
+                return size;
             }
-        }
 
-        public boolean willKeepFile(String localDir, String name) throws IOException {
-            final File file = new File(localDir, name);
-            final Long hash = keep.get(name);
-            if (!file.exists() || hash == null || hash != adler(file)) {
-                keep.remove(name);
-                delete.add(name);
-                return false;
-            }
-            return true;
-        }
-
-        private long adler(File file) throws IOException {
-            if (file.isDirectory()) {
-                return 0;
-            }
-            try (final InputStream in = new FileInputStream(file)) {
-                final byte[] bytes = new byte[(int) file.length()];
-                in.read(bytes);
-                final Adler32 adler = new Adler32();
-                adler.update(bytes);
-                return adler.getValue();
+            @Override
+            public void processItem(FileSystem fileSystem, List<Upload> item) throws IOException {
+                final List<File> files = new ArrayList<>();
+                final List<String> names = new ArrayList<>();
+                for (Upload upload : item) {
+                    files.add(upload.getFile());
+                    names.add(upload.getName());
+                }
+                fileSystem.putFiles(files, names);
+                for (Upload upload : item) {
+                    analysis.copied(upload.getName(), upload.getState());
+                }
             }
-        }
-
-        public void addDirToDelete(String name) {
-            keep.remove(name);
-            delete.add(withSlash(name));
-        }
+        });
+    }
 
-        public boolean shouldCopy(String localDir, String name) throws IOException {
-            final boolean shouldCopy = !keep.containsKey(name);
-            if (shouldCopy) {
-                final File file = new File(localDir, name);
-                keep.put(name, adler(file));
-            }
-            return shouldCopy;
+    /**
+     * @return where the upload can start: after the data already uploaded by an interrupted run,
+     * after the data known to be there if the file has been appended to, or 0.
+     * An upload is journaled as started only when the remote file cannot contain foreign data,
+     * so the data found after an interruption is the beginning of this content.
+     * If the server can hash files, the data found is also compared with the beginning of the local file.
+     * FTP has no standard command for this, so there the journal and the sizes are all that is checked.
+     */
+    private long uploadOffset(FileSystem fileSystem, Upload upload, Analysis analysis) throws IOException {
+        final boolean interrupted = analysis.isInterruptedUpload(upload.getName(), upload.getState());
+        if (!interrupted && upload.getOffset() == 0) {
+            return 0;
         }
-
-        public Collection<String> getDeletes() {
-            return delete;
+        final long size = fileSystem.getSize(upload.getName());
+        final boolean resumable = interrupted
+                ? size > 0 && size <= upload.getState().getSize()
+                : size == upload.getOffset();
+        if (!resumable) {
+            return 0;
         }
-
-        public void saveState(Writer sync) throws IOException {
-            try (final BufferedWriter out = new BufferedWriter(sync)) {
-                for (Map.Entry<String, Long> entry : keep.entrySet()) {
-                    out.write(String.format("%016x %s", entry.getValue(), entry.getKey()));
-                    out.newLine();
-                }
-            }
+        if (fileSystem.canHashFiles()
+                && !Hasher.md5(upload.getFile(), size).equals(fileSystem.hashFile(upload.getName(), size))) {
+            Utils.println("Remote data differs, uploading completely: " + upload.getName());
+            return 0;
         }
+        return size;
     }
 }
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import guru.nidi.ftpsync.fs.AbstractFile;
+import guru.nidi.ftpsync.metrics.Timer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.Adler32;
+
+/**
+ * Calculates the checksums of local files.
+ * Files are read in chunks of fixed size, so their length does not matter.
+ */
+class Hasher {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    private Hasher() {
+    }
+
+    static long adler(File file) throws IOException {
+        return adler(file, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return the MD5 digest of the file as hex string, as calculated by <code>md5sum</code>.
+     */
+    static String md5(File file) throws IOException {
+        return md5(file, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return the MD5 digest of the first <code>length</code> bytes of the file.
+     */
+    static String md5(File file, long length) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+        try (final InputStream in = new FileInputStream(file)) {
+            final byte[] buf = new byte[BUFFER_SIZE];
+            long rest = length;
+            int read;
+            while (rest > 0 && (read = in.read(buf, 0, (int) Math.min(buf.length, rest))) > 0) {
+                digest.update(buf, 0, read);
+                rest -= read;
+            }
+        }
+        final StringBuilder s = new StringBuilder();
+        for (byte b : digest.digest()) {
+            s.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return s.toString();
+    }
+
+    /**
+     * @return the checksum of the first <code>length</code> bytes of the file.
+     */
+    static long adler(File file, long length) throws IOException {
+        return adler(file, length, -1, null, 0);
+    }
+
+    /**
+     * In the same pass, also stores the checksum of the first <code>prefix</code> bytes in
+     * <code>prefixHashes[index]</code>. It is left untouched if the file is shorter.
+     */
+    private static long adler(File file, long length, long prefix, long[] prefixHashes, int index) throws IOException {
+        if (file.isDirectory()) {
+            return 0;
+        }
+        final Adler32 adler = new Adler32();
+        try (final InputStream in = new FileInputStream(file)) {
+            final byte[] buf = new byte[BUFFER_SIZE];
+            long pos = 0;
+            int read = 0;
+            while (read >= 0) {
+                if (pos == prefix) {
+                    prefixHashes[index] = adler.getValue();
+                }
+                long max = Math.min(buf.length, length - pos);
+                if (prefix > pos) {
+                    max = Math.min(max, prefix - pos);
+                }
+                if (max == 0) {
+                    break;
+                }
+                read = in.read(buf, 0, (int) max);
+                if (read > 0) {
+                    adler.update(buf, 0, read);
+                    pos += read;
+                }
+            }
+        }
+        return adler.getValue();
+    }
+
+    /**
+     * Calculates the checksums of all files, using all available processors. The metadata is taken from the listing.
+     * Only as many bytes as the metadata says are hashed, so growing files are hashed consistently.
+     */
+    static FileState[] fingerprint(List<AbstractFile> files) throws IOException {
+        return fingerprint(files, null, null, new Timer());
+    }
+
+    /**
+     * Additionally calculates the checksum of the first <code>prefixes[i]</code> bytes of every file and stores it
+     * in <code>prefixHashes[i]</code>. Negative prefixes are ignored.
+     *
+     * @param timer records every hashed file.
+     */
+    static FileState[] fingerprint(List<AbstractFile> files, long[] prefixes, long[] prefixHashes, Timer timer) throws IOException {
+        final FileState[] res = new FileState[files.size()];
+        try {
+            POOL.invoke(new HashTask(files, prefixes, prefixHashes, timer, res, 0, files.size()));
+        } catch (HashException e) {
+            throw e.getCause();
+        }
+        return res;
+    }
+
+    private static class HashTask extends RecursiveAction {
+        private final List<AbstractFile> files;
+        private final long[] prefixes;
+        private final long[] prefixHashes;
+        private final Timer timer;
+        private final FileState[] res;
+        private final int from;
+        private final int to;
+
+        HashTask(List<AbstractFile> files, long[] prefixes, long[] prefixHashes, Timer timer, FileState[] res, int from, int to) {
+            this.files = files;
+            this.prefixes = prefixes;
+            this.prefixHashes = prefixHashes;
+            this.timer = timer;
+            this.res = res;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                try {
+                    final AbstractFile file = files.get(from);
+                    final FileState state = FileState.of(file, 0);
+                    final long length = state.getSize() >= 0 ? state.getSize() : Long.MAX_VALUE;
+                    final long prefix = prefixes == null ? -1 : prefixes[from];
+                    final long start = timer.start();
+                    res[from] = state.withHash(adler(file.asFile(), length, prefix, prefixHashes, from));
+                    timer.stop(start, Math.max(0, state.getSize()));
+                } catch (IOException e) {
+                    timer.failed();
+                    throw new HashException(e);
+                }
+            } else if (to > from) {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new HashTask(files, prefixes, prefixHashes, timer, res, from, mid),
+                        new HashTask(files, prefixes, prefixHashes, timer, res, mid, to));
+            }
+        }
+    }
+
+    private static class HashException extends RuntimeException {
+        HashException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An append-only log of the remote operations that completed since the sync state was last saved.
+ * After an interruption, it is replayed to know what has already been done.
+ * <p>
+ * Every line is one of
+ * <pre>
+ * R                                  the run analyzed the remote side
+ * D name                             name has been deleted
+ * U hash size modified key name      name has been uploaded
+ * S hash name                        the upload of name with the given checksum has started,
+ *                                    the remote file contains only data of this upload
+ * </pre>
+ * Uploads that have been started but not completed are carried over when the journal is compacted.
+ */
+class Journal implements Closeable {
+    private static final Charset UTF8 = Charset.forName("utf-8");
+    private static final int COMPACT_ENTRIES = 1000;
+    private static final long COMPACT_INTERVAL = 60 * 1000;
+
+    interface Replay {
+        void remoteAnalysis();
+
+        void deleted(String name);
+
+        void copied(String name, FileState state);
+    }
+
+    private final File file;
+    private final Map<String, Long> started = new HashMap<>();
+    private boolean remoteAnalysis;
+    private Writer out;
+    private int entries;
+    private long lastCompaction;
+
+    Journal(File file) {
+        this.file = file;
+    }
+
+    public void replay(Replay replay) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        final StringBuilder content = new StringBuilder();
+        try (final Reader in = new InputStreamReader(new FileInputStream(file), UTF8)) {
+            final char[] buf = new char[8192];
+            int read;
+            while ((read = in.read(buf)) > 0) {
+                content.append(buf, 0, read);
+            }
+        }
+        int start = 0;
+        int end;
+        //a last line without newline has only partially been written before the interruption
+        while ((end = content.indexOf("\n", start)) >= 0) {
+            final String line = content.substring(start, end);
+            if (line.equals("R")) {
+                replay.remoteAnalysis();
+            } else if (line.startsWith("D ")) {
+                final String name = line.substring(2);
+                started.remove(name);
+                replay.deleted(name);
+            } else if (line.startsWith("U ")) {
+                final String name = line.substring(70);
+                started.remove(name);
+                replay.copied(name, new FileState(
+                        parseHex(line, 2), parseHex(line, 19), parseHex(line, 36), parseHex(line, 53)));
+            } else if (line.startsWith("S ")) {
+                started.put(line.substring(19), parseHex(line, 2));
+            }
+            start = end + 1;
+        }
+    }
+
+    private static long parseHex(String line, int pos) {
+        return new BigInteger(line.substring(pos, pos + 16), 16).longValue();
+    }
+
+    /**
+     * Starts a new, empty journal.
+     *
+     * @param remoteAnalysis if the remote side is analyzed in this run. If the run is interrupted, the next one
+     *                       must analyze the remote side again, as the decisions of this one are not persisted.
+     */
+    public synchronized void start(boolean remoteAnalysis) throws IOException {
+        this.remoteAnalysis = remoteAnalysis;
+        restart();
+    }
+
+    private void restart() throws IOException {
+        close();
+        out = new OutputStreamWriter(new FileOutputStream(file), UTF8);
+        if (remoteAnalysis) {
+            write("R");
+        }
+        for (final Map.Entry<String, Long> entry : started.entrySet()) {
+            writeStarted(entry.getKey(), entry.getValue());
+        }
+        entries = 0;
+        lastCompaction = System.currentTimeMillis();
+    }
+
+    public synchronized void deleted(String name) throws IOException {
+        started.remove(name);
+        write("D " + name);
+    }
+
+    public synchronized void uploading(String name, long hash) throws IOException {
+        started.put(name, hash);
+        writeStarted(name, hash);
+    }
+
+    private void writeStarted(String name, long hash) throws IOException {
+        write(String.format("S %016x %s", hash, name));
+    }
+
+    /**
+     * @return the checksum of the content whose upload has been started but not completed, or null.
+     */
+    public synchronized Long startedUpload(String name) {
+        return started.get(name);
+    }
+
+    public synchronized void copied(String name, FileState state) throws IOException {
+        started.remove(name);
+        write(String.format("U %016x %016x %016x %016x %s",
+                state.getHash(), state.getSize(), state.getModified(), state.getKey(), name));
+    }
+
+    /**
+     * Written lines are flushed immediately, so they survive if the process is killed.
+     */
+    private void write(String line) throws IOException {
+        if (out == null) {
+            throw new IllegalStateException("Journal not started");
+        }
+        out.write(line);
+        out.write('\n');
+        out.flush();
+        entries++;
+    }
+
+    /**
+     * @return if the journal has grown enough to be merged into the sync state.
+     */
+    public synchronized boolean shouldCompact() {
+        return entries >= COMPACT_ENTRIES && System.currentTimeMillis() - lastCompaction >= COMPACT_INTERVAL;
+    }
+
+    /**
+     * To be called when the sync state containing all journaled operations has been saved.
+     */
+    public synchronized void compacted() throws IOException {
+        restart();
+    }
+
+    /**
+     * To be called when the sync has completed and its state been saved.
+     */
+    public synchronized void finished() throws IOException {
+        close();
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not delete journal " + file);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import guru.nidi.ftpsync.fs.FileSystem;
+import guru.nidi.ftpsync.fs.FileSystemPool;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stages processing items concurrently to the thread submitting them, connected by bounded queues.
+ * A stage with one thread processes its items in the order they are submitted.
+ * Every item is processed with a connection acquired from the pool just for this item,
+ * so that the stages can share the connections.
+ */
+class Pipeline {
+    interface Worker<T> {
+        String itemName(T item);
+
+        /**
+         * @return the number of bytes to transfer for the item, for the progress.
+         */
+        long itemSize(T item);
+
+        void processItem(FileSystem fileSystem, T item) throws Exception;
+    }
+
+    interface Input<T> {
+        void submit(T item) throws IOException;
+    }
+
+    private static final Object END = new Object();
+
+    private final FileSystemPool pool;
+    private final Progress progress;
+    private final List<Stage<?>> stages = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private final AtomicReference<Exception> error = new AtomicReference<>();
+    private boolean ended;
+
+    public Pipeline(FileSystemPool pool, Progress progress) {
+        this.pool = pool;
+        this.progress = progress;
+    }
+
+    public <T> Stage<T> stage(String name, int threadCount, int capacity, Worker<T> worker) {
+        final Stage<T> stage = new Stage<>(threadCount, capacity, worker);
+        stages.add(stage);
+        for (int i = 0; i < threadCount; i++) {
+            final Thread thread = new Thread(stage.runner(worker), name + "-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        return stage;
+    }
+
+    /**
+     * Waits until all submitted items are processed.
+     *
+     * @throws IOException if an item could not be processed.
+     */
+    public void finish() throws IOException {
+        end();
+        checkError();
+    }
+
+    /**
+     * Stops all stages. The items not yet processed are dropped.
+     */
+    public void abort() {
+        if (!ended) {
+            error.compareAndSet(null, new InterruptedIOException("Pipeline aborted"));
+            end();
+        }
+    }
+
+    private void end() {
+        if (ended) {
+            return;
+        }
+        ended = true;
+        for (Stage<?> stage : stages) {
+            stage.end();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error.compareAndSet(null, e);
+            }
+        }
+    }
+
+    private void checkError() throws IOException {
+        final Exception e = error.get();
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        }
+        if (e != null) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    class Stage<T> implements Input<T> {
+        private final int threadCount;
+        private final BlockingQueue<Object> queue;
+        private final Worker<T> worker;
+
+        private Stage(int threadCount, int capacity, Worker<T> worker) {
+            this.threadCount = threadCount;
+            this.worker = worker;
+            queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        /**
+         * Queues an item, waits if the queue is full.
+         *
+         * @throws IOException if an item of any stage could not be processed.
+         */
+        @Override
+        public void submit(T item) throws IOException {
+            if (progress.isActive()) {
+                progress.planned(worker.itemSize(item));
+            }
+            try {
+                do {
+                    checkError();
+                } while (!queue.offer(item, 100, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while submitting " + item);
+            }
+        }
+
+        private void end() {
+            for (int i = 0; i < threadCount; i++) {
+                try {
+                    queue.put(END);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    error.compareAndSet(null, e);
+                }
+            }
+        }
+
+        private Runnable runner(final Worker<T> worker) {
+            return new Runnable() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public void run() {
+                    try {
+                        Object item;
+                        while ((item = queue.take()) != END) {
+                            if (error.get() == null) {
+                                process(worker, (T) item);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            };
+        }
+
+        private void process(Worker<T> worker, T item) {
+            try {
+                final FileSystem fileSystem = pool.acquire();
+                try {
+                    worker.processItem(fileSystem, item);
+                } finally {
+                    pool.release(fileSystem);
+                }
+                if (progress.isActive()) {
+                    progress.done(worker.itemSize(item), worker.itemName(item));
+                }
+            } catch (Exception e) {
+                error.compareAndSet(null, e);
+            }
+        }
+    }
+}
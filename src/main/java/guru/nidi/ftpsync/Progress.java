@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import guru.nidi.ftpsync.fs.Transfers;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shows the progress of a whole sync, weighted by the bytes to transfer, with the current and average throughput
+ * and the estimated remaining time. The line is refreshed by its own thread at a fixed rate,
+ * processing an item only updates a few counters.
+ * The bytes of uploads are counted while they are read, so that large files progress steadily.
+ * If the output is not a terminal, nothing is shown and nothing must be recorded: {@link #isActive()} is false.
+ */
+class Progress implements Transfers.Listener {
+    private static final long REFRESH = 500;
+    private static final double SMOOTHING = .3;
+
+    private final boolean active;
+    private final AtomicLong plannedItems = new AtomicLong();
+    private final AtomicLong plannedBytes = new AtomicLong();
+    private final AtomicLong doneItems = new AtomicLong();
+    private final AtomicLong doneBytes = new AtomicLong();
+    private final AtomicLong streamingBytes = new AtomicLong();
+    private final ThreadLocal<long[]> streamed = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+    private volatile String current = "";
+    private long start;
+    private Thread thread;
+
+    private Progress(boolean active) {
+        this.active = active;
+    }
+
+    /**
+     * Starts showing the progress if the output is a terminal.
+     */
+    public static Progress start() {
+        final Progress progress = new Progress(System.console() != null);
+        if (progress.active) {
+            progress.start = System.currentTimeMillis();
+            progress.thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    progress.refresh();
+                }
+            }, "progress");
+            progress.thread.setDaemon(true);
+            progress.thread.start();
+            Transfers.addListener(progress);
+        }
+        return progress;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Adds an item to be processed.
+     */
+    public void planned(long bytes) {
+        plannedItems.incrementAndGet();
+        plannedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Counts the bytes read by the current thread until its item is done.
+     */
+    @Override
+    public void transferred(long bytes) {
+        streamed.get()[0] += bytes;
+        streamingBytes.addAndGet(bytes);
+    }
+
+    /**
+     * @param bytes the size of the item. The bytes already counted while reading it are replaced by this.
+     */
+    public void done(long bytes, String name) {
+        final long[] counted = streamed.get();
+        doneBytes.addAndGet(bytes);
+        streamingBytes.addAndGet(-counted[0]);
+        counted[0] = 0;
+        doneItems.incrementAndGet();
+        current = name;
+    }
+
+    private long bytes() {
+        return doneBytes.get() + Math.max(0, streamingBytes.get());
+    }
+
+    /**
+     * Stops showing the progress and shows a summary if anything has been processed.
+     */
+    public void stop() {
+        if (thread == null) {
+            return;
+        }
+        Transfers.removeListener(this);
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        if (doneItems.get() > 0) {
+            final double seconds = Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+            Utils.println(String.format(Locale.ENGLISH, "Processed %d items, %s in %.1f s (%s/s)",
+                    doneItems.get(), bytes(doneBytes.get()), seconds, bytes((long) (doneBytes.get() / seconds))));
+        } else {
+            Utils.clearProgress();
+        }
+    }
+
+    private void refresh() {
+        long lastBytes = 0;
+        long lastTime = start;
+        double rate = 0;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Thread.sleep(REFRESH);
+                final long now = System.currentTimeMillis();
+                final long bytes = bytes();
+                final double sample = (bytes - lastBytes) * 1000.0 / Math.max(1, now - lastTime);
+                rate = lastBytes == 0 && rate == 0 ? sample : SMOOTHING * sample + (1 - SMOOTHING) * rate;
+                lastBytes = bytes;
+                lastTime = now;
+                if (bytes > 0 || doneItems.get() > 0) {
+                    Utils.printProgress(line(bytes, rate, now));
+                }
+            }
+        } catch (InterruptedException e) {
+            //stopped
+        }
+    }
+
+    private String line(long bytes, double rate, long now) {
+        final long total = plannedBytes.get();
+        final double average = bytes * 1000.0 / Math.max(1, now - start);
+        final double fraction = total > 0
+                ? (double) bytes / total
+                : (double) doneItems.get() / Math.max(1, plannedItems.get());
+        final String eta = average > 0 && total > bytes ? duration((long) ((total - bytes) / average)) : "-";
+        return String.format(Locale.ENGLISH, "[%d/%d] %3.0f%% %s/%s  %s/s (avg %s/s)  ETA %s  %s",
+                doneItems.get(), plannedItems.get(), 100 * fraction, bytes(bytes), bytes(total),
+                bytes((long) rate), bytes((long) average), eta, current);
+    }
+
+    static String bytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        final int exp = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+        return String.format(Locale.ENGLISH, "%.1f %sB", bytes / Math.pow(1024, exp), "KMGTPE".charAt(exp - 1));
+    }
+
+    private static String duration(long seconds) {
+        return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+}
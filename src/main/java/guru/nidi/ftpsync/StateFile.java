@@ -0,0 +1,406 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * The persisted sync state, a sorted map from file name to {@link FileState}.
+ * <p>
+ * The current format is binary. Single entries are looked up with positional reads, without reading the whole file.
+ * The file is not memory mapped: a mapping cannot be released explicitly, and Windows does not replace a mapped file.
+ * A {@link FileChannel} shares the delete access, so the file can be replaced while it is open.
+ * <pre>
+ * header:  magic "FSYN", int version
+ * entries: long hash, long size, long modified, long key,
+ *          varint shared prefix length, varint suffix length, suffix (utf-8)
+ *          every {@value #RESTART_INTERVAL}th entry has no shared prefix and is referenced by the index
+ * index:   long offset of every restart entry
+ * trailer: long index offset, int entry count, int restart interval
+ * </pre>
+ * Older text formats are read completely into memory. They are replaced by the binary format on the next save.
+ */
+abstract class StateFile implements Iterable<Map.Entry<String, FileState>>, Closeable {
+    private static final int MAGIC = 0x4653594e;
+    private static final int VERSION = 3;
+    private static final int RESTART_INTERVAL = 16;
+    private static final int HEADER_SIZE = 8;
+    private static final int TRAILER_SIZE = 16;
+    private static final Charset UTF8 = Charset.forName("utf-8");
+    private static final String TEXT_HEADER = "#ftpsync 2";
+
+    public static StateFile open(File file) throws IOException {
+        if (file.length() >= HEADER_SIZE + TRAILER_SIZE) {
+            try (final DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                if (in.readInt() == MAGIC) {
+                    final int version = in.readInt();
+                    if (version != VERSION) {
+                        throw new IOException("Unsupported version " + version + " of sync state " + file);
+                    }
+                    return new Binary(file);
+                }
+            }
+        }
+        return new Text(file);
+    }
+
+    public abstract FileState get(String name);
+
+    public abstract int size();
+
+    /**
+     * @return the entries whose name is not smaller than the given one, sorted by name.
+     */
+    public abstract Iterator<Map.Entry<String, FileState>> iterator(String from);
+
+    @Override
+    public Iterator<Map.Entry<String, FileState>> iterator() {
+        return iterator("");
+    }
+
+    /**
+     * @return if the file has the current format and must not be rewritten if nothing changed.
+     */
+    public abstract boolean isCurrentFormat();
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    /**
+     * Writes the entries in the current format. The file is replaced atomically.
+     *
+     * @param entries must be sorted by name.
+     */
+    public static void write(File file, Iterator<Map.Entry<String, FileState>> entries) throws IOException {
+        final File temp = new File(file.getPath() + ".tmp");
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            final List<Long> index = new ArrayList<>();
+            String last = "";
+            int count = 0;
+            while (entries.hasNext()) {
+                final Map.Entry<String, FileState> entry = entries.next();
+                final String name = entry.getKey();
+                final FileState state = entry.getValue();
+                int shared = 0;
+                if (count % RESTART_INTERVAL == 0) {
+                    index.add((long) out.size());
+                } else {
+                    final int max = Math.min(last.length(), name.length());
+                    while (shared < max && last.charAt(shared) == name.charAt(shared)) {
+                        shared++;
+                    }
+                    //the suffix is encoded separately, it must not start in the middle of a character
+                    if (shared > 0 && Character.isHighSurrogate(name.charAt(shared - 1))) {
+                        shared--;
+                    }
+                }
+                final byte[] suffix = name.substring(shared).getBytes(UTF8);
+                out.writeLong(state.getHash());
+                out.writeLong(state.getSize());
+                out.writeLong(state.getModified());
+                out.writeLong(state.getKey());
+                writeVarint(out, shared);
+                writeVarint(out, suffix.length);
+                out.write(suffix);
+                last = name;
+                count++;
+            }
+            //size() stops counting at Integer.MAX_VALUE, the offsets would be wrong
+            if (out.size() > Integer.MAX_VALUE - TRAILER_SIZE - 8 * index.size()) {
+                throw new IOException("Sync state " + file + " is too large");
+            }
+            final long indexOffset = out.size();
+            for (final long offset : index) {
+                out.writeLong(offset);
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(count);
+            out.writeInt(RESTART_INTERVAL);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static class Binary extends StateFile {
+        private final File file;
+        private final FileChannel channel;
+        private final long indexOffset;
+        private final int count;
+        private final int restartInterval;
+        private final long[] restarts;
+        private final String[] restartNames;
+
+        Binary(File file) throws IOException {
+            this.file = file;
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                final long trailer = channel.size() - TRAILER_SIZE;
+                final ByteBuffer buf = read(trailer, TRAILER_SIZE);
+                indexOffset = buf.getLong(0);
+                count = buf.getInt(8);
+                restartInterval = buf.getInt(12);
+                restarts = new long[(int) ((trailer - indexOffset) / 8)];
+                read(indexOffset, 8 * restarts.length).asLongBuffer().get(restarts);
+                restartNames = new String[restarts.length];
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private ByteBuffer read(long pos, int length) throws IOException {
+            final ByteBuffer buf = ByteBuffer.allocate(length);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, pos + buf.position()) < 0) {
+                    throw new EOFException("Sync state " + file + " is truncated");
+                }
+            }
+            buf.flip();
+            return buf;
+        }
+
+        /**
+         * @return the entries from the given restart point up to the next one, read at once.
+         */
+        private Cursor block(int restart) {
+            final long start = restarts[restart];
+            final long end = restart + 1 < restarts.length ? restarts[restart + 1] : indexOffset;
+            try {
+                return new Cursor(read(start, (int) (end - start)));
+            } catch (IOException e) {
+                throw new RuntimeException("Could not read sync state " + file, e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+        @Override
+        public boolean isCurrentFormat() {
+            return true;
+        }
+
+        @Override
+        public FileState get(String name) {
+            if (restarts.length == 0) {
+                return null;
+            }
+            final Cursor cursor = block(restartBefore(name));
+            String current = "";
+            while (cursor.hasNext()) {
+                final int entry = cursor.pos;
+                current = cursor.next(current);
+                final int cmp = current.compareTo(name);
+                if (cmp == 0) {
+                    return cursor.state(entry);
+                }
+                if (cmp > 0) {
+                    break;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return the last restart point whose name is not greater than the given one, or the first.
+         */
+        private int restartBefore(String name) {
+            int low = 0;
+            int high = restarts.length - 1;
+            while (low < high) {
+                final int mid = (low + high + 1) >>> 1;
+                if (restartName(mid).compareTo(name) <= 0) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * The binary search visits the same restart points again and again, so their names are kept.
+         * Strings are immutable, threads racing to fill in a name just read it twice.
+         */
+        private String restartName(int restart) {
+            String name = restartNames[restart];
+            if (name == null) {
+                name = block(restart).next("");
+                restartNames[restart] = name;
+            }
+            return name;
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, FileState>> iterator(final String from) {
+            return new Iterator<Map.Entry<String, FileState>>() {
+                private int restart = restarts.length == 0 ? 0 : restartBefore(from);
+                private Cursor cursor = restart < restarts.length ? block(restart) : null;
+                private String current = "";
+                private Map.Entry<String, FileState> next = findNext();
+
+                private Map.Entry<String, FileState> findNext() {
+                    while (cursor != null) {
+                        if (!cursor.hasNext()) {
+                            restart++;
+                            cursor = restart < restarts.length ? block(restart) : null;
+                            continue;
+                        }
+                        final int entry = cursor.pos;
+                        current = cursor.next(current);
+                        if (current.compareTo(from) >= 0) {
+                            return new AbstractMap.SimpleImmutableEntry<>(current, cursor.state(entry));
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Map.Entry<String, FileState> next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    final Map.Entry<String, FileState> res = next;
+                    next = findNext();
+                    return res;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        /**
+         * Reads the entries of a block sequentially.
+         */
+        private static class Cursor {
+            private final ByteBuffer buf;
+            private int pos;
+
+            Cursor(ByteBuffer buf) {
+                this.buf = buf;
+            }
+
+            boolean hasNext() {
+                return pos < buf.limit();
+            }
+
+            String next(String previous) {
+                pos += 32;
+                final int shared = readVarint();
+                final int length = readVarint();
+                final String suffix = new String(buf.array(), pos, length, UTF8);
+                pos += length;
+                return previous.substring(0, shared) + suffix;
+            }
+
+            FileState state(int entry) {
+                return new FileState(buf.getLong(entry), buf.getLong(entry + 8), buf.getLong(entry + 16), buf.getLong(entry + 24));
+            }
+
+            private int readVarint() {
+                int value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = buf.get(pos++);
+                    value |= (b & 0x7f) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                return value;
+            }
+        }
+    }
+
+    /**
+     * The text formats of earlier versions. Either "hash name" or "hash size modified key name" after a header line.
+     */
+    private static class Text extends StateFile {
+        private final SortedMap<String, FileState> entries = new TreeMap<>();
+
+        Text(File file) throws IOException {
+            try (final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8))) {
+                String line = in.readLine();
+                if (TEXT_HEADER.equals(line)) {
+                    while ((line = in.readLine()) != null) {
+                        entries.put(line.substring(68), new FileState(
+                                parseHex(line, 0), parseHex(line, 17), parseHex(line, 34), parseHex(line, 51)));
+                    }
+                } else {
+                    for (; line != null; line = in.readLine()) {
+                        entries.put(line.substring(17), FileState.ofHash(parseHex(line, 0)));
+                    }
+                }
+            }
+        }
+
+        private static long parseHex(String line, int pos) {
+            return new BigInteger(line.substring(pos, pos + 16), 16).longValue();
+        }
+
+        @Override
+        public FileState get(String name) {
+            return entries.get(name);
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+
+        @Override
+        public boolean isCurrentFormat() {
+            return false;
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, FileState>> iterator(String from) {
+            return Collections.unmodifiableMap(entries.tailMap(from)).entrySet().iterator();
+        }
+    }
+}
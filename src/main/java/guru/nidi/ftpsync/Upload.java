@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import java.io.File;
+
+/**
+ * A local file that is to be copied to the remote side.
+ * If the offset is not 0, the remote file is expected to have this size and only the rest is copied.
+ */
+class Upload {
+    private final String name;
+    private final File file;
+    private final long offset;
+    private final long modified;
+    private FileState state;
+
+    public Upload(String name, File file) {
+        this(name, file, 0, null, file.lastModified());
+    }
+
+    /**
+     * @param modified the modification time as listed, it is not looked up again.
+     */
+    public Upload(String name, File file, long offset, FileState state, long modified) {
+        this.name = name;
+        this.file = file;
+        this.offset = offset;
+        this.state = state;
+        this.modified = modified;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getModified() {
+        return modified;
+    }
+
+    public FileState getState() {
+        return state;
+    }
+
+    public void setState(FileState state) {
+        this.state = state;
+    }
+}
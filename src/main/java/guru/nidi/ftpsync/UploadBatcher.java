@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects small new files into batches that are uploaded in one operation.
+ * Large files and continued uploads are passed on one by one, they profit from resuming.
+ * Can be called concurrently.
+ */
+class UploadBatcher implements Pipeline.Input<Upload> {
+    private static final int MAX_FILES = 1000;
+    private static final long MAX_BYTES = 16 * 1024 * 1024;
+    private static final long MAX_FILE_SIZE = 256 * 1024;
+
+    private final Pipeline.Input<Upload> single;
+    private final Pipeline.Input<List<Upload>> batches;
+    private List<Upload> batch = new ArrayList<>();
+    private long bytes;
+
+    public UploadBatcher(Pipeline.Input<Upload> single, Pipeline.Input<List<Upload>> batches) {
+        this.single = single;
+        this.batches = batches;
+    }
+
+    @Override
+    public void submit(Upload upload) throws IOException {
+        final long size = upload.getState().getSize();
+        if (upload.getOffset() > 0 || size > MAX_FILE_SIZE) {
+            single.submit(upload);
+            return;
+        }
+        final List<Upload> full;
+        synchronized (this) {
+            batch.add(upload);
+            bytes += size;
+            if (batch.size() < MAX_FILES && bytes < MAX_BYTES) {
+                return;
+            }
+            full = takeBatch();
+        }
+        batches.submit(full);
+    }
+
+    /**
+     * Submits the files collected so far.
+     */
+    public void flush() throws IOException {
+        final List<Upload> rest;
+        synchronized (this) {
+            rest = takeBatch();
+        }
+        if (!rest.isEmpty()) {
+            batches.submit(rest);
+        }
+    }
+
+    private List<Upload> takeBatch() {
+        final List<Upload> res = batch;
+        batch = new ArrayList<>();
+        bytes = 0;
+        return res;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Holds back the uploads until the analysis is complete and passes them on in the order of a policy.
+ * This trades the overlap of analysis and uploading for control over what arrives first.
+ * Can be called concurrently.
+ */
+class UploadScheduler implements Pipeline.Input<Upload> {
+    enum Policy implements Comparator<Upload> {
+        /**
+         * Starts the large files early, so they do not delay the end of the transfer.
+         */
+        LARGEST {
+            @Override
+            public int compare(Upload u1, Upload u2) {
+                return Long.compare(size(u2), size(u1));
+            }
+        },
+        /**
+         * Completes as many files as possible per time.
+         */
+        SMALLEST {
+            @Override
+            public int compare(Upload u1, Upload u2) {
+                return Long.compare(size(u1), size(u2));
+            }
+        },
+        /**
+         * Uploads the most recently modified files first, they are the most likely to be needed.
+         * The modification times are taken from the listing, so they do not change while sorting.
+         */
+        RECENT {
+            @Override
+            public int compare(Upload u1, Upload u2) {
+                return Long.compare(u2.getModified(), u1.getModified());
+            }
+        };
+
+        private static long size(Upload upload) {
+            return upload.getState().getSize() - upload.getOffset();
+        }
+    }
+
+    private final Pipeline.Input<Upload> target;
+    private final Policy policy;
+    private final List<Upload> uploads = new ArrayList<>();
+
+    public UploadScheduler(Pipeline.Input<Upload> target, Policy policy) {
+        this.target = target;
+        this.policy = policy;
+    }
+
+    @Override
+    public synchronized void submit(Upload upload) {
+        uploads.add(upload);
+    }
+
+    /**
+     * Passes the collected uploads on in the order of the policy.
+     */
+    public void flush() throws IOException {
+        final List<Upload> sorted;
+        synchronized (this) {
+            sorted = new ArrayList<>(uploads);
+            uploads.clear();
+        }
+        Collections.sort(sorted, policy);
+        for (Upload upload : sorted) {
+            target.submit(upload);
+        }
+    }
+}
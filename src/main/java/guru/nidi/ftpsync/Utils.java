@@ -15,8 +15,6 @@
  */
 package guru.nidi.ftpsync;
 
-import java.util.Collection;
-
 /**
  *
  */
@@ -24,29 +22,31 @@ class Utils {
     private Utils() {
     }
 
-    interface ProgressWorker<T> {
-        String itemName(T item);
+    static String withSlash(String s) {
+        return s.endsWith("/") ? s : (s + "/");
+    }
+
+    private static int lastProgressLength;
 
-        void processItem(T item) throws Exception;
+    /**
+     * Shows a line that is replaced by the next call.
+     */
+    static synchronized void printProgress(String line) {
+        System.out.print("\r" + line + dup(" ", Math.max(0, lastProgressLength - line.length())));
+        lastProgressLength = line.length();
     }
 
-    static <T> void doProgressively(Collection<T> items, ProgressWorker<T> worker) {
-        if (items == null || items.size() == 0) {
-            return;
-        }
-        try {
-            int count = 0;
-            for (T item : items) {
-                int rate = (100 * count / items.size());
-                String line = "[" + (rate < 10 ? " " : "") + rate + "%] " + worker.itemName(item);
-                System.out.print(line);
-                count++;
-                worker.processItem(item);
-                System.out.print("\r" + dup(" ", line.length()) + "\r");
-            }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * Prints a line, a progress line being shown is replaced.
+     */
+    static synchronized void println(String line) {
+        clearProgress();
+        System.out.println(line);
+    }
+
+    static synchronized void clearProgress() {
+        System.out.print("\r" + dup(" ", lastProgressLength) + "\r");
+        lastProgressLength = 0;
     }
 
     private static String dup(String c, int count) {
@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import guru.nidi.ftpsync.fs.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static guru.nidi.ftpsync.Utils.withSlash;
+
+/**
+ * Walks the local tree directory by directory and compares each directory with its remote counterpart,
+ * as listed remotely or as recorded by the state.
+ * Obsolete remote entries are submitted to the delete stage, changed files to the upload stage,
+ * so both can start while the walk goes on.
+ * <p/>
+ * Remote entries that are in the way of a local one (a file where a directory should be or vice versa)
+ * are deleted right away, so that nothing is created before the old entry with the same path is gone.
+ * Missing directories are created by the walker, before anything is uploaded into them.
+ * <p/>
+ * Directories are analyzed concurrently by a work stealing pool, so that many remote directories
+ * are listed at the same time over different connections.
+ */
+class Walker {
+    private static final AbstractFileFilter SELECT_ALL = new AbstractFileFilter() {
+        @Override
+        public boolean accept(AbstractFile abstractFile) {
+            return !abstractFile.getName().equals(".") && !abstractFile.getName().equals("..");
+        }
+    };
+
+    private final FileSystem localFileSystem;
+    private final FileSystemPool remotePool;
+    private final Analysis analysis;
+    private final boolean remoteAnalysis;
+    private final Deleter deleter;
+    private final Pipeline.Input<Upload> uploads;
+    private final AtomicInteger directories = new AtomicInteger();
+    private final Set<String> walked = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private boolean treeDeletion;
+    private boolean remoteHashing;
+    private boolean recursive;
+
+    /**
+     * @param remoteAnalysis if the remote directories should be listed. If not, the state is trusted.
+     */
+    public Walker(FileSystem localFileSystem, FileSystemPool remotePool, Analysis analysis, boolean remoteAnalysis,
+                  Deleter deleter, Pipeline.Input<Upload> uploads) {
+        this.localFileSystem = localFileSystem;
+        this.remotePool = remotePool;
+        this.analysis = analysis;
+        this.remoteAnalysis = remoteAnalysis;
+        this.deleter = deleter;
+        this.uploads = uploads;
+    }
+
+    /**
+     * Analyzes the whole tree with as many threads as the pool has connections.
+     */
+    public void walk() throws IOException {
+        walk(Collections.singleton("/"), true);
+    }
+
+    /**
+     * Analyzes the given directories.
+     *
+     * @param recursive if all their subdirectories should be analyzed, too. If not, only the new ones are.
+     *                  Directories that do not exist locally or remotely are left to the analysis of their parent.
+     */
+    public void walk(Collection<String> dirs, boolean recursive) throws IOException {
+        this.recursive = recursive;
+        final List<WalkTask> tasks = new ArrayList<>();
+        for (String dir : dirs) {
+            if (recursive || dir.equals("/")
+                    || (analysis.isDirectory(dir) && new File(localFileSystem.getBasedir(), dir).isDirectory())) {
+                tasks.add(new WalkTask(dir, false));
+            }
+        }
+        final long start = System.currentTimeMillis();
+        final FileSystem fileSystem = remotePool.acquire();
+        try {
+            treeDeletion = fileSystem.canDeleteTree();
+            remoteHashing = remoteAnalysis && fileSystem.canHashFiles();
+        } finally {
+            remotePool.release(fileSystem);
+        }
+        final ForkJoinPool pool = new ForkJoinPool(remotePool.size());
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } catch (WalkException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdownNow();
+        }
+        final double seconds = Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+        Utils.println(String.format("Analyzed %d directories in %.1f s (%.1f directories/s)",
+                directories.get(), seconds, directories.get() / seconds));
+    }
+
+    /**
+     * Compares one directory with its remote counterpart.
+     *
+     * @return the subdirectories to analyze.
+     */
+    private List<WalkTask> walk(String dir) throws IOException {
+        directories.incrementAndGet();
+        Utils.println("Analyzing " + (remoteAnalysis ? "remote" : "local") + ": " + dir);
+        final Map<String, Boolean> remote = remoteAnalysis ? listRemote(dir, remoteHashing) : listState(dir);
+        final List<AbstractFile> files = new ArrayList<>();
+        final List<WalkTask> dirs = new ArrayList<>();
+        final Set<String> local = new HashSet<>();
+        for (AbstractFile file : localFileSystem.listFiles(dir, SELECT_ALL)) {
+            final String name = withSlash(dir) + file.getName();
+            final Boolean remoteDir = remote.get(file.getName());
+            local.add(file.getName());
+            if (file.isDirectory()) {
+                if (Boolean.FALSE.equals(remoteDir)) {
+                    deleteNow(name);
+                }
+                if (!Boolean.TRUE.equals(remoteDir)) {
+                    createDirectory(name);
+                } else if (analysis.shouldCopy(name)) {
+                    analysis.copied(name, FileState.directory());
+                }
+                if (recursive || !Boolean.TRUE.equals(remoteDir)) {
+                    dirs.add(new WalkTask(name, false));
+                }
+            } else if (file.isFile()) {
+                if (Boolean.TRUE.equals(remoteDir)) {
+                    deleteTreeNow(name);
+                }
+                files.add(file);
+            }
+        }
+        for (Map.Entry<String, Boolean> entry : remote.entrySet()) {
+            if (!local.contains(entry.getKey())) {
+                final String name = withSlash(dir) + entry.getKey();
+                if (!entry.getValue()) {
+                    deleter.deleteFile(name);
+                } else if (treeDeletion) {
+                    deleter.deleteTree(name);
+                } else if (remoteAnalysis) {
+                    dirs.add(new WalkTask(name, true));
+                } else {
+                    final List<String> entries = analysis.entriesBelow(name);
+                    entries.add(withSlash(name));
+                    deleter.deleteAll(entries);
+                }
+            }
+        }
+        for (Upload upload : analysis.uploads(dir, files)) {
+            uploads.submit(upload);
+        }
+        return dirs;
+    }
+
+    /**
+     * Deletes a remote directory that does not exist locally.
+     *
+     * @return the subdirectories to delete.
+     */
+    private List<WalkTask> vanish(String dir) throws IOException {
+        directories.incrementAndGet();
+        final Map<String, Boolean> remote = listRemote(dir, false);
+        final List<WalkTask> dirs = new ArrayList<>();
+        deleter.deleteDirectory(dir, remote.size());
+        for (Map.Entry<String, Boolean> entry : remote.entrySet()) {
+            final String name = withSlash(dir) + entry.getKey();
+            if (entry.getValue()) {
+                dirs.add(new WalkTask(name, true));
+            } else {
+                deleter.deleteFile(name);
+            }
+        }
+        return dirs;
+    }
+
+    /**
+     * @param verify if the checksums of the remote files should be compared with the local files.
+     * @return the names of the entries in the remote directory, mapped to whether they are directories.
+     * Entries of the state that do not exist remotely or whose size or checksum does not match are removed from it.
+     */
+    private Map<String, Boolean> listRemote(String dir, boolean verify) throws IOException {
+        final Map<String, AbstractFile> listed = new HashMap<>();
+        Map<String, String> hashes = null;
+        final FileSystem fileSystem = remotePool.acquire();
+        try {
+            for (AbstractFile file : fileSystem.listFiles(dir, SELECT_ALL)) {
+                listed.put(file.getName(), file);
+            }
+            if (verify) {
+                hashes = fileSystem.hashFiles(dir);
+            }
+        } finally {
+            remotePool.release(fileSystem);
+        }
+        for (Map.Entry<String, FileState> entry : analysis.children(dir).entrySet()) {
+            if (!matches(listed.get(entry.getKey()), entry.getValue())
+                    || (hashes != null && !verified(withSlash(dir) + entry.getKey(), entry.getValue(), hashes.get(entry.getKey())))) {
+                final String name = withSlash(dir) + entry.getKey();
+                for (String below : analysis.entriesBelow(name)) {
+                    analysis.missingRemotely(below);
+                }
+                analysis.missingRemotely(name);
+            }
+        }
+        final Map<String, Boolean> res = new HashMap<>();
+        for (AbstractFile file : listed.values()) {
+            res.put(file.getName(), file.isDirectory());
+        }
+        return res;
+    }
+
+    private static boolean matches(AbstractFile file, FileState state) {
+        if (file == null || file.isDirectory() != state.isDirectory()) {
+            return false;
+        }
+        return state.isDirectory() || file.getSize() < 0 || state.getSize() < 0 || file.getSize() == state.getSize();
+    }
+
+    /**
+     * @return if the remote file has the same content as the local one. Files that do not exist locally
+     * are deleted anyway, they are not checked.
+     */
+    private boolean verified(String name, FileState state, String remoteHash) throws IOException {
+        if (state.isDirectory()) {
+            return true;
+        }
+        final File local = new File(localFileSystem.getBasedir(), name);
+        return !local.isFile() || Hasher.md5(local).equals(remoteHash);
+    }
+
+    private Map<String, Boolean> listState(String dir) {
+        final Map<String, Boolean> res = new HashMap<>();
+        for (Map.Entry<String, FileState> entry : analysis.children(dir).entrySet()) {
+            res.put(entry.getKey(), entry.getValue().isDirectory());
+        }
+        return res;
+    }
+
+    /**
+     * @return all remote entries below the directory, contents before their directory.
+     * Directories end with a slash.
+     */
+    private List<String> remoteEntriesBelow(String dir) throws IOException {
+        if (!remoteAnalysis) {
+            return analysis.entriesBelow(dir);
+        }
+        final List<String> res = new ArrayList<>();
+        for (Map.Entry<String, Boolean> entry : listRemote(dir, false).entrySet()) {
+            final String name = withSlash(dir) + entry.getKey();
+            if (entry.getValue()) {
+                res.addAll(remoteEntriesBelow(name));
+                res.add(withSlash(name));
+            } else {
+                res.add(name);
+            }
+        }
+        return res;
+    }
+
+    private void createDirectory(String name) throws IOException {
+        final FileSystem fileSystem = remotePool.acquire();
+        try {
+            fileSystem.createDirectory(name);
+        } finally {
+            remotePool.release(fileSystem);
+        }
+        analysis.copied(name, FileState.directory());
+    }
+
+    private void deleteNow(String name) throws IOException {
+        final FileSystem fileSystem = remotePool.acquire();
+        try {
+            Deleter.delete(fileSystem, name);
+        } finally {
+            remotePool.release(fileSystem);
+        }
+        analysis.deleted(name);
+    }
+
+    private void deleteTreeNow(String dir) throws IOException {
+        if (!treeDeletion) {
+            for (String entry : remoteEntriesBelow(dir)) {
+                deleteNow(entry);
+            }
+            deleteNow(withSlash(dir));
+            return;
+        }
+        final FileSystem fileSystem = remotePool.acquire();
+        try {
+            fileSystem.deleteTree(withSlash(dir));
+        } finally {
+            remotePool.release(fileSystem);
+        }
+        analysis.deletedTree(withSlash(dir));
+    }
+
+    private class WalkTask extends RecursiveAction {
+        private final String dir;
+        private final boolean vanished;
+
+        WalkTask(String dir, boolean vanished) {
+            this.dir = dir;
+            this.vanished = vanished;
+        }
+
+        @Override
+        protected void compute() {
+            if (!vanished && !walked.add(dir)) {
+                return;
+            }
+            try {
+                invokeAll(vanished ? vanish(dir) : walk(dir));
+            } catch (IOException e) {
+                throw new WalkException(e);
+            }
+        }
+    }
+
+    private static class WalkException extends RuntimeException {
+        WalkException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches a local tree for changes. Bursts of events are coalesced into the set of directories whose entries
+ * have changed. New directories are watched as soon as they are reported.
+ */
+class Watcher implements Closeable {
+    private static final long DEBOUNCE = 1000;
+    private static final long MAX_DELAY = 10 * DEBOUNCE;
+
+    private final Path root;
+    private final WatchService service;
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+
+    public Watcher(String root) throws IOException {
+        this.root = Paths.get(root).toAbsolutePath();
+        service = this.root.getFileSystem().newWatchService();
+        registerTree(this.root);
+    }
+
+    private void registerTree(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                keys.put(dir.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Waits for changes. When the first one arrives, further events are collected until there has been
+     * no event for a moment.
+     *
+     * @param until the time in milliseconds when to give up waiting for the first change.
+     * @return the names of the changed directories, relative to the root, or null if nothing has changed until
+     * the given time or if events have been lost.
+     */
+    public Set<String> changedDirectories(long until) throws IOException {
+        try {
+            WatchKey key = service.poll(Math.max(0, until - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            if (key == null) {
+                return null;
+            }
+            final Set<String> dirs = new TreeSet<>();
+            final long end = System.currentTimeMillis() + MAX_DELAY;
+            while (key != null) {
+                if (!collect(key, dirs)) {
+                    return null;
+                }
+                key = System.currentTimeMillis() < end ? service.poll(DEBOUNCE, TimeUnit.MILLISECONDS) : service.poll();
+            }
+            return dirs;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while watching " + root);
+        }
+    }
+
+    /**
+     * @return false if events have been lost.
+     */
+    private boolean collect(WatchKey key, Set<String> dirs) throws IOException {
+        final Path dir = keys.get(key);
+        boolean complete = true;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                complete = false;
+            } else if (dir != null) {
+                dirs.add(name(dir));
+                final Path child = dir.resolve((Path) event.context());
+                if (event.kind() == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    registerTree(child);
+                }
+            }
+        }
+        if (!key.reset()) {
+            keys.remove(key);
+        }
+        return complete;
+    }
+
+    private String name(Path dir) {
+        return "/" + root.relativize(dir).toString().replace(dir.getFileSystem().getSeparator(), "/");
+    }
+
+    @Override
+    public void close() throws IOException {
+        service.close();
+    }
+}
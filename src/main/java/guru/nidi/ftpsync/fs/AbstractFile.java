@@ -27,5 +27,20 @@ public interface AbstractFile {
 
     String getName();
 
+    /**
+     * @return the size in bytes or -1 if it is not known.
+     */
+    long getSize();
+
+    /**
+     * @return the time of the last modification in milliseconds or -1 if it is not known.
+     */
+    long getModified();
+
+    /**
+     * @return an object identifying the file independently of its name, or null if it is not known.
+     */
+    Object getFileKey();
+
     File asFile();
 }
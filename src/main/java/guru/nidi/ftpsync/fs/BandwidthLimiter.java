@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync.fs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Limits the rate of all uploads together with a token bucket. The rate can depend on the time of day.
+ * A thread reading more data than the bucket holds waits until the data would have been sent at the allowed rate.
+ * Register it with {@link Transfers#addListener(Transfers.Listener)}.
+ */
+public class BandwidthLimiter implements Transfers.Listener {
+    private static final Pattern WINDOW = Pattern.compile("(\\d{1,2}):(\\d{2})-(\\d{1,2}):(\\d{2})=(.+)");
+    private static final Pattern RATE = Pattern.compile("(\\d+)([kKmMgG]?)");
+    private static final long SCHEDULE_CHECK = 1000000000L;
+
+    private final List<Window> windows;
+    private final long defaultRate;
+    private long rate;
+    private long rateValidUntil;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param windows     the rates for time windows, the first matching one applies.
+     * @param defaultRate the rate outside of all windows.
+     */
+    private BandwidthLimiter(List<Window> windows, long defaultRate) {
+        this.windows = windows;
+        this.defaultRate = defaultRate;
+        lastRefill = System.nanoTime();
+        rateValidUntil = lastRefill;
+    }
+
+    /**
+     * Parses a comma separated list of rates in bytes per second, with an optional suffix k, m or g.
+     * A rate can be preceded by a time window like <code>08:00-18:00=</code>, windows can span midnight.
+     * A rate without window applies outside of all windows, 0 means unlimited.
+     * Example: <code>08:00-18:00=200k,18:00-22:00=1m,0</code>
+     */
+    public static BandwidthLimiter parse(String spec) {
+        final List<Window> windows = new ArrayList<>();
+        long defaultRate = 0;
+        for (String part : spec.split(",")) {
+            final Matcher window = WINDOW.matcher(part.trim());
+            if (window.matches()) {
+                windows.add(new Window(
+                        minute(window.group(1), window.group(2)),
+                        minute(window.group(3), window.group(4)),
+                        rate(window.group(5))));
+            } else {
+                defaultRate = rate(part.trim());
+            }
+        }
+        return new BandwidthLimiter(windows, defaultRate);
+    }
+
+    private static int minute(String hour, String minute) {
+        final int h = Integer.parseInt(hour);
+        final int m = Integer.parseInt(minute);
+        if (h > 24 || m > 59 || (h == 24 && m > 0)) {
+            throw new IllegalArgumentException("Invalid time " + hour + ":" + minute);
+        }
+        return h * 60 + m;
+    }
+
+    private static long rate(String s) {
+        final Matcher matcher = RATE.matcher(s);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid rate " + s);
+        }
+        final long value = Long.parseLong(matcher.group(1));
+        switch (matcher.group(2).toLowerCase(Locale.ENGLISH)) {
+            case "k":
+                return value * 1024;
+            case "m":
+                return value * 1024 * 1024;
+            case "g":
+                return value * 1024 * 1024 * 1024;
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * @return the rate in bytes per second at the given minute of the day, 0 if unlimited.
+     */
+    long rateAt(int minuteOfDay) {
+        for (Window window : windows) {
+            if (window.contains(minuteOfDay)) {
+                return window.rate;
+            }
+        }
+        return defaultRate;
+    }
+
+    @Override
+    public void transferred(long bytes) throws IOException {
+        final long wait;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            if (now - rateValidUntil >= 0) {
+                final Calendar calendar = Calendar.getInstance();
+                rate = rateAt(calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE));
+                rateValidUntil = now + SCHEDULE_CHECK;
+            }
+            if (rate <= 0) {
+                tokens = 0;
+                lastRefill = now;
+                return;
+            }
+            //the bucket holds a quarter of a second, so that pauses of a stream are not made up by bursts
+            tokens = Math.min(rate / 4.0, tokens + (now - lastRefill) * rate / 1e9);
+            lastRefill = now;
+            tokens -= bytes;
+            wait = tokens >= 0 ? 0 : (long) (-tokens * 1e9 / rate);
+        }
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while limiting bandwidth");
+            }
+        }
+    }
+
+    private static class Window {
+        private final int from;
+        private final int to;
+        private final long rate;
+
+        Window(int from, int to, long rate) {
+            this.from = from;
+            this.to = to;
+            this.rate = rate;
+        }
+
+        boolean contains(int minute) {
+            return from <= to ? minute >= from && minute < to : minute >= from || minute < to;
+        }
+    }
+}
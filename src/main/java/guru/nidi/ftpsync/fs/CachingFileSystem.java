@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lists every directory only once, the listings are kept in a {@link DirectoryCache}.
+ */
+public class CachingFileSystem implements FileSystem {
+    private static final AbstractFileFilter SELECT_ALL = new AbstractFileFilter() {
+        @Override
+        public boolean accept(AbstractFile abstractFile) {
+            return true;
+        }
+    };
+
+    private final FileSystem delegate;
+    private final DirectoryCache cache;
+
+    public CachingFileSystem(FileSystem delegate, DirectoryCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public String getBasedir() {
+        return delegate.getBasedir();
+    }
+
+    @Override
+    public void deleteFile(String name) throws IOException {
+        try {
+            delegate.deleteFile(name);
+        } finally {
+            cache.changed(name);
+        }
+    }
+
+    @Override
+    public void deleteDirectory(String name) throws IOException {
+        try {
+            delegate.deleteDirectory(name);
+        } finally {
+            cache.changed(name);
+        }
+    }
+
+    @Override
+    public boolean canDeleteTree() throws IOException {
+        return delegate.canDeleteTree();
+    }
+
+    @Override
+    public void deleteTree(String name) throws IOException {
+        try {
+            delegate.deleteTree(name);
+        } finally {
+            cache.removedTree(name);
+        }
+    }
+
+    @Override
+    public void putFile(File local, String dest) throws IOException {
+        try {
+            delegate.putFile(local, dest);
+        } finally {
+            cache.changed(dest);
+        }
+    }
+
+    @Override
+    public void putFile(File local, String dest, long offset) throws IOException {
+        try {
+            delegate.putFile(local, dest, offset);
+        } finally {
+            cache.changed(dest);
+        }
+    }
+
+    @Override
+    public boolean canPutFiles() throws IOException {
+        return delegate.canPutFiles();
+    }
+
+    @Override
+    public void putFiles(List<File> locals, List<String> dests) throws IOException {
+        try {
+            delegate.putFiles(locals, dests);
+        } finally {
+            for (String dest : dests) {
+                cache.changed(dest);
+            }
+        }
+    }
+
+    @Override
+    public long getSize(String name) throws IOException {
+        return delegate.getSize(name);
+    }
+
+    @Override
+    public void getFile(File local, String dest) throws IOException {
+        delegate.getFile(local, dest);
+    }
+
+    @Override
+    public void createDirectory(String name) throws IOException {
+        try {
+            delegate.createDirectory(name);
+        } finally {
+            cache.changed(name);
+        }
+    }
+
+    @Override
+    public boolean canHashFiles() throws IOException {
+        return delegate.canHashFiles();
+    }
+
+    @Override
+    public Map<String, String> hashFiles(String dir) throws IOException {
+        return delegate.hashFiles(dir);
+    }
+
+    @Override
+    public String hashFile(String name, long length) throws IOException {
+        return delegate.hashFile(name, length);
+    }
+
+    @Override
+    public List<AbstractFile> listFiles(String dir, AbstractFileFilter filter) throws IOException {
+        List<AbstractFile> files = cache.get(dir);
+        if (files == null) {
+            files = Collections.unmodifiableList(delegate.listFiles(dir, SELECT_ALL));
+            cache.put(dir, files);
+        }
+        final List<AbstractFile> res = new ArrayList<>();
+        for (AbstractFile file : files) {
+            if (filter.accept(file)) {
+                res.add(file);
+            }
+        }
+        return res;
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
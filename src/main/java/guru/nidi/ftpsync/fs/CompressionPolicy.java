@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync.fs;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Decides which files are compressed on the wire.
+ * Files that are compressed already or too small to profit are sent as they are.
+ */
+public class CompressionPolicy {
+    public static final List<String> DEFAULT_SKIPPED = Arrays.asList(
+            "jpg", "jpeg", "png", "gif", "webp", "mp3", "mp4", "mkv", "avi", "mov",
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "jar", "war", "pdf", "woff", "woff2");
+
+    private final long minSize;
+    private final Set<String> skipped = new HashSet<>();
+
+    /**
+     * @param minSize smaller files are not compressed.
+     * @param skipped the extensions of the files not to compress, without dot.
+     */
+    public CompressionPolicy(long minSize, Collection<String> skipped) {
+        this.minSize = minSize;
+        for (String extension : skipped) {
+            this.skipped.add(extension.toLowerCase(Locale.ENGLISH));
+        }
+    }
+
+    public boolean shouldCompress(File file) {
+        if (file.length() < minSize) {
+            return false;
+        }
+        final String name = file.getName();
+        final int dot = name.lastIndexOf('.');
+        return dot < 0 || !skipped.contains(name.substring(dot + 1).toLowerCase(Locale.ENGLISH));
+    }
+}
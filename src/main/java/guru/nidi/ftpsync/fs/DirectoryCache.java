@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync.fs;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The listings of directories, shared by all connections to a file system.
+ * A listing is forgotten as soon as an entry of the directory is changed.
+ */
+public class DirectoryCache {
+    private final ConcurrentMap<String, List<AbstractFile>> listings = new ConcurrentHashMap<>();
+
+    List<AbstractFile> get(String dir) {
+        return listings.get(normalize(dir));
+    }
+
+    void put(String dir, List<AbstractFile> files) {
+        listings.put(normalize(dir), files);
+    }
+
+    /**
+     * Forgets the listings of the entry and of its parent.
+     */
+    void changed(String name) {
+        final String normalized = normalize(name);
+        listings.remove(normalized);
+        final int pos = normalized.lastIndexOf('/');
+        listings.remove(pos <= 0 ? "/" : normalized.substring(0, pos));
+    }
+
+    /**
+     * Forgets the listings of the directory, of its parent and of everything below it.
+     */
+    void removedTree(String dir) {
+        changed(dir);
+        final String prefix = normalize(dir) + "/";
+        for (String listed : listings.keySet()) {
+            if (listed.startsWith(prefix)) {
+                listings.remove(listed);
+            }
+        }
+    }
+
+    public void clear() {
+        listings.clear();
+    }
+
+    private static String normalize(String name) {
+        if (!name.startsWith("/")) {
+            name = "/" + name;
+        }
+        return name.length() > 1 && name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+    }
+}
@@ -19,6 +19,7 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 /**
  *
@@ -30,12 +31,64 @@ public interface FileSystem extends Closeable {
 
     void deleteDirectory(String name) throws IOException;
 
+    /**
+     * @return if {@link #deleteTree(String)} is supported.
+     */
+    boolean canDeleteTree() throws IOException;
+
+    /**
+     * Deletes a directory with all its contents in one operation.
+     */
+    void deleteTree(String name) throws IOException;
+
     void putFile(File local, String dest) throws IOException;
 
+    /**
+     * Continues an interrupted upload: The first <code>offset</code> bytes of <code>local</code> are already in
+     * <code>dest</code>, only the rest is transferred.
+     */
+    void putFile(File local, String dest, long offset) throws IOException;
+
+    /**
+     * @return if {@link #putFiles(List, List)} is supported.
+     */
+    boolean canPutFiles() throws IOException;
+
+    /**
+     * Uploads many files in one operation. The parent directories must exist.
+     *
+     * @param dests the names of the uploaded files, in the same order as <code>locals</code>.
+     */
+    void putFiles(List<File> locals, List<String> dests) throws IOException;
+
+    /**
+     * @return the size of the file or -1 if it does not exist.
+     */
+    long getSize(String name) throws IOException;
+
     void getFile(File local, String dest) throws IOException;
 
     void createDirectory(String name) throws IOException;
 
+    /**
+     * @return if {@link #hashFiles(String)} and {@link #hashFile(String, long)} are supported.
+     */
+    boolean canHashFiles() throws IOException;
+
+    /**
+     * Calculates the checksums of the files in a directory where they are stored.
+     *
+     * @return the MD5 digests as hex strings of the regular files directly contained in the directory, by name.
+     */
+    Map<String, String> hashFiles(String dir) throws IOException;
+
+    /**
+     * Calculates the checksum of the beginning of a file where it is stored.
+     *
+     * @return the MD5 digest as hex string of the first <code>length</code> bytes of the file.
+     */
+    String hashFile(String name, long length) throws IOException;
+
     List<AbstractFile> listFiles(String dir, AbstractFileFilter filter) throws IOException;
 
 }
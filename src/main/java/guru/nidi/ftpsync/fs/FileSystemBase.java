@@ -30,7 +30,14 @@ public abstract class FileSystemBase implements FileSystem {
     }
 
     protected String expand(String s) {
-        return basedir + (s.startsWith("/") ? "" : "/") + s;
+        return basedir + "/" + relative(s);
+    }
+
+    /**
+     * @return the name relative to the base directory, with or without leading slash.
+     */
+    protected String relative(String s) {
+        return s.startsWith("/") ? s.substring(1) : s;
     }
 
     @Override
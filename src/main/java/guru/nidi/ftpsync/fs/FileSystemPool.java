@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync.fs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A fixed number of connections to the same file system.
+ * Connections are opened lazily, a connection is used by only one thread at a time.
+ */
+public class FileSystemPool implements Closeable {
+    private final FileSystemFactory factory;
+    private final int size;
+    private final BlockingQueue<FileSystem> idle = new LinkedBlockingQueue<>();
+    private final List<FileSystem> all = new ArrayList<>();
+
+    /**
+     * @param primary an already open connection, it is owned by the pool from now on.
+     */
+    public FileSystemPool(FileSystem primary, FileSystemFactory factory, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool size must be positive");
+        }
+        this.factory = factory;
+        this.size = size;
+        all.add(primary);
+        idle.add(primary);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public FileSystem acquire() throws IOException {
+        final FileSystem fs = idle.poll();
+        if (fs != null) {
+            return fs;
+        }
+        if (reserveSlot()) {
+            final FileSystem created;
+            try {
+                created = factory.create();
+            } catch (IOException | RuntimeException e) {
+                releaseSlot();
+                throw e;
+            }
+            synchronized (all) {
+                all.set(all.indexOf(null), created);
+            }
+            return created;
+        }
+        try {
+            return idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection");
+        }
+    }
+
+    public void release(FileSystem fs) {
+        idle.add(fs);
+    }
+
+    private boolean reserveSlot() {
+        synchronized (all) {
+            if (all.size() < size) {
+                all.add(null);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private void releaseSlot() {
+        synchronized (all) {
+            all.remove(null);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException first = null;
+        synchronized (all) {
+            for (FileSystem fs : all) {
+                if (fs != null) {
+                    try {
+                        fs.close();
+                    } catch (IOException e) {
+                        if (first == null) {
+                            first = e;
+                        }
+                    }
+                }
+            }
+            all.clear();
+        }
+        idle.clear();
+        if (first != null) {
+            throw first;
+        }
+    }
+}
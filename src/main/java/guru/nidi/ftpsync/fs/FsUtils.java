@@ -16,21 +16,66 @@
 package guru.nidi.ftpsync.fs;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 /**
  *
  */
 class FsUtils {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private FsUtils() {
     }
 
+    /**
+     * @return a stream reading the file from the given position.
+     */
+    static InputStream openAt(File file, long offset) throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            in.getChannel().position(offset);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return in;
+    }
+
     static void copy(InputStream in, OutputStream out) throws IOException {
-        try (final BufferedInputStream bin = new BufferedInputStream(in);
-             final BufferedOutputStream bout = new BufferedOutputStream(out)) {
-            final byte[] buf = new byte[1000];
+        copy(in, out, BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize the maximum number of bytes written at once.
+     */
+    static void copy(InputStream in, OutputStream out, int bufferSize) throws IOException {
+        try (final InputStream i = in;
+             final OutputStream o = out) {
+            final byte[] buf = new byte[bufferSize];
             int read;
-            while ((read = bin.read(buf)) > 0) {
-                bout.write(buf, 0, read);
+            while ((read = i.read(buf)) > 0) {
+                o.write(buf, 0, read);
+            }
+        }
+    }
+
+    /**
+     * Copies a local file from the given position on, the target is truncated at this position.
+     * The data is transferred by the operating system if possible, without passing through the java heap.
+     */
+    static void transfer(File source, long offset, File target) throws IOException {
+        try (final FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             final FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            out.truncate(offset);
+            final long size = in.size();
+            long pos = offset;
+            while (pos < size) {
+                final long transferred = in.transferTo(pos, size - pos, out.position(pos));
+                if (transferred <= 0) {
+                    break;
+                }
+                pos += transferred;
             }
         }
     }
@@ -22,17 +22,28 @@ import org.apache.commons.net.ftp.*;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
 
 /**
  *
  */
 public class FtpFileSystem extends FileSystemBase {
     private final FTPClient client;
+    private final boolean mlsd;
+    private final CompressionPolicy compression;
+    private boolean compressing;
 
     public FtpFileSystem(String basedir, Config config) throws IOException {
         super(basedir);
         client = new FTPClient();
+        if (config.getSocketBufferSize() > 0) {
+            final TunedSocketFactory socketFactory = new TunedSocketFactory(config.getSocketBufferSize());
+            client.setSocketFactory(socketFactory);
+            client.setServerSocketFactory(socketFactory.serverSocketFactory());
+        }
         client.connect(config.getHost());
+        client.setTcpNoDelay(config.isTcpNoDelay());
         int reply = client.getReplyCode();
 
         if (!FTPReply.isPositiveCompletion(reply)) {
@@ -44,6 +55,17 @@ public class FtpFileSystem extends FileSystemBase {
             throw new FtpException("Could not login", client.getReplyStrings());
         }
         client.setFileType(FTP.BINARY_FILE_TYPE);
+        if (config.getBufferSize() > 0) {
+            client.setBufferSize(config.getBufferSize());
+        }
+        if (config.isPassive()) {
+            client.enterLocalPassiveMode();
+            client.setUseEPSVwithIPv4(config.isEpsv());
+        }
+        mlsd = client.hasFeature("MLST");
+        compression = config.getCompression() != null && FTPReply.isPositiveCompletion(client.sendCommand("MODE", "Z"))
+                ? config.getCompression() : null;
+        compressing = compression != null;
     }
 
     public void deleteFile(String name) throws IOException {
@@ -60,17 +82,91 @@ public class FtpFileSystem extends FileSystemBase {
         }
     }
 
+    public boolean canDeleteTree() {
+        return false;
+    }
+
+    public void deleteTree(String name) {
+        throw new UnsupportedOperationException("Recursive deletion is not supported");
+    }
+
     public void putFile(File local, String dest) throws IOException {
         dest = expand(dest);
-        try (InputStream in = new FileInputStream(local)) {
-            if (!client.storeFile(dest, in)) {
+        try (InputStream in = Transfers.wrap(new FileInputStream(local))) {
+            if (!store(dest, in, shouldCompress(local), false)) {
                 throw new FtpException("Could put copy file " + local + " to " + dest, client.getReplyStrings());
             }
         }
     }
 
+    public void putFile(File local, String dest, long offset) throws IOException {
+        dest = expand(dest);
+        try (FileInputStream file = new FileInputStream(local)) {
+            file.getChannel().position(offset);
+            final InputStream in = Transfers.wrap(file);
+            final boolean compress = shouldCompress(local);
+            client.setRestartOffset(offset);
+            if (!store(dest, in, compress, false)) {
+                //REST is not supported for STOR if nothing has been read, try APPE instead
+                client.setRestartOffset(0);
+                if (file.getChannel().position() != offset || !store(dest, in, compress, true)) {
+                    throw new FtpException("Could not continue to copy file " + local + " to " + dest, client.getReplyStrings());
+                }
+            }
+        }
+    }
+
+    private boolean shouldCompress(File local) {
+        return compression != null && compression.shouldCompress(local);
+    }
+
+    /**
+     * Stores the data, deflated if the compressed transfer mode is used.
+     * The client library does not know MODE Z, so the data stream is deflated here.
+     */
+    private boolean store(String dest, InputStream in, boolean compress, boolean append) throws IOException {
+        setCompressing(compress);
+        if (!compress) {
+            return append ? client.appendFile(dest, in) : client.storeFile(dest, in);
+        }
+        final OutputStream out = append ? client.appendFileStream(dest) : client.storeFileStream(dest);
+        if (out == null) {
+            return false;
+        }
+        FsUtils.copy(in, new DeflaterOutputStream(out));
+        return client.completePendingCommand();
+    }
+
+    /**
+     * Switches the transfer mode if needed. All other data transfers must be done in stream mode.
+     */
+    private void setCompressing(boolean compress) throws IOException {
+        if (compress != compressing) {
+            if (!FTPReply.isPositiveCompletion(client.sendCommand("MODE", compress ? "Z" : "S"))) {
+                throw new FtpException("Could not change transfer mode", client.getReplyStrings());
+            }
+            compressing = compress;
+        }
+    }
+
+    public boolean canPutFiles() {
+        return false;
+    }
+
+    public void putFiles(List<File> locals, List<String> dests) {
+        throw new UnsupportedOperationException("Bulk upload is not supported");
+    }
+
+    public long getSize(String name) throws IOException {
+        if (client.sendCommand("SIZE", expand(name)) != FTPReply.FILE_STATUS) {
+            return -1;
+        }
+        return Long.parseLong(client.getReplyString().substring(4).trim());
+    }
+
     public void getFile(File local, String dest) throws IOException {
         dest = expand(dest);
+        setCompressing(false);
         try (OutputStream out = new FileOutputStream(local)) {
             if (!client.retrieveFile(dest, out)) {
                 throw new FtpException("Could get copy file " + local + " from " + dest, client.getReplyStrings());
@@ -85,17 +181,43 @@ public class FtpFileSystem extends FileSystemBase {
         }
     }
 
+    public boolean canHashFiles() {
+        return false;
+    }
+
+    public Map<String, String> hashFiles(String dir) {
+        throw new UnsupportedOperationException("Remote hashing is not supported");
+    }
+
+    /**
+     * FTP has no standard command to hash a part of a file.
+     */
+    public String hashFile(String name, long length) {
+        throw new UnsupportedOperationException("Remote hashing is not supported");
+    }
+
     @Override
     public List<AbstractFile> listFiles(String dir, AbstractFileFilter filter) throws IOException {
+        setCompressing(false);
+        final FTPFileFilterImpl ftpFilter = new FTPFileFilterImpl(filter);
+        final FTPFile[] files = mlsd
+                ? client.mlistDir(expand(dir), ftpFilter)
+                : client.listFiles(expand(dir), ftpFilter);
+        if (files == null) {
+            throw new FtpException("Could not list directory " + dir, client.getReplyStrings());
+        }
         List<AbstractFile> res = new ArrayList<>();
-        for (FTPFile file : client.listFiles(expand(dir), new FTPFileFilterImpl(filter))) {
+        for (FTPFile file : files) {
             res.add(new AbstractFileImpl(file));
         }
         return res;
     }
 
     @Override
-    public void close() {
+    public void close() throws IOException {
+        if (client.isConnected()) {
+            client.disconnect();
+        }
     }
 
     private static class FTPFileFilterImpl implements FTPFileFilter {
@@ -107,7 +229,9 @@ public class FtpFileSystem extends FileSystemBase {
 
         @Override
         public boolean accept(FTPFile ftpFile) {
-            return filter.accept(new AbstractFileImpl(ftpFile));
+            //MLSD lists the directory itself and its parent, not necessarily as "." and ".."
+            final String raw = ftpFile.getRawListing() == null ? "" : ftpFile.getRawListing().toLowerCase();
+            return !raw.contains("type=cdir;") && !raw.contains("type=pdir;") && filter.accept(new AbstractFileImpl(ftpFile));
         }
     }
 
@@ -133,6 +257,21 @@ public class FtpFileSystem extends FileSystemBase {
             return file.getName();
         }
 
+        @Override
+        public long getSize() {
+            return file.getSize();
+        }
+
+        @Override
+        public long getModified() {
+            return file.getTimestamp() == null ? -1 : file.getTimestamp().getTimeInMillis();
+        }
+
+        @Override
+        public Object getFileKey() {
+            return null;
+        }
+
         @Override
         public File asFile() {
             throw new UnsupportedOperationException();
@@ -15,9 +15,20 @@
  */
 package guru.nidi.ftpsync.fs;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  *
@@ -33,79 +44,167 @@ public class LocalFileSystem extends FileSystemBase {
 
     @Override
     public void deleteFile(String name) throws IOException {
-        file(name).delete();
+        Files.delete(file(name).toPath());
     }
 
     @Override
     public void deleteDirectory(String name) throws IOException {
-        file(name).delete();
+        Files.delete(file(name).toPath());
+    }
+
+    @Override
+    public boolean canDeleteTree() {
+        return true;
+    }
+
+    /**
+     * Symbolic links are deleted, not followed, so nothing outside of the tree is touched.
+     */
+    @Override
+    public void deleteTree(String name) throws IOException {
+        Files.walkFileTree(file(name).toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
     }
 
     @Override
     public void putFile(File local, String dest) throws IOException {
-        FsUtils.copy(new FileInputStream(local), new FileOutputStream(expand(dest)));
+        Files.copy(local.toPath(), file(dest).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public void putFile(File local, String dest, long offset) throws IOException {
+        FsUtils.transfer(local, offset, file(dest));
+    }
+
+    /**
+     * Single copies are as fast as a bulk operation could be.
+     */
+    @Override
+    public boolean canPutFiles() {
+        return false;
+    }
+
+    @Override
+    public void putFiles(List<File> locals, List<String> dests) {
+        throw new UnsupportedOperationException("Bulk upload is not supported");
+    }
+
+    @Override
+    public long getSize(String name) throws IOException {
+        final File file = file(name);
+        return file.exists() ? file.length() : -1;
     }
 
     @Override
     public void getFile(File local, String dest) throws IOException {
-        FsUtils.copy(new FileInputStream(expand(dest)), new FileOutputStream(local));
+        Files.copy(file(dest).toPath(), local.toPath(), StandardCopyOption.REPLACE_EXISTING);
     }
 
     @Override
     public void createDirectory(String name) throws IOException {
-        file(name).mkdirs();
+        Files.createDirectories(file(name).toPath());
     }
 
+    /**
+     * The files are local anyway, nothing can be saved by hashing them here.
+     */
+    @Override
+    public boolean canHashFiles() {
+        return false;
+    }
+
+    @Override
+    public Map<String, String> hashFiles(String dir) {
+        throw new UnsupportedOperationException("Remote hashing is not supported");
+    }
+
+    @Override
+    public String hashFile(String name, long length) {
+        throw new UnsupportedOperationException("Remote hashing is not supported");
+    }
+
+    /**
+     * Reads the attributes of every entry once, they are kept by the returned files.
+     */
     @Override
     public List<AbstractFile> listFiles(String dir, AbstractFileFilter filter) throws IOException {
-        final File[] files = file(dir).listFiles(new FileFilterImpl(filter));
-        List<AbstractFile> res = new ArrayList<>();
-        if (files != null) {
-            for (File file : files) {
-                res.add(new AbstractFileImpl(file));
+        final List<AbstractFile> res = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(file(dir).toPath())) {
+            for (Path path : stream) {
+                final BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    //deleted in the meantime
+                    continue;
+                }
+                final AbstractFile file = new AbstractFileImpl(path, attrs);
+                if (filter.accept(file)) {
+                    res.add(file);
+                }
             }
+        } catch (NoSuchFileException | NotDirectoryException e) {
+            //nothing to list
         }
         return res;
     }
 
-    private static class FileFilterImpl implements FileFilter {
-        private final AbstractFileFilter filter;
+    private static class AbstractFileImpl implements AbstractFile {
+        private final Path path;
+        private final BasicFileAttributes attrs;
 
-        private FileFilterImpl(AbstractFileFilter filter) {
-            this.filter = filter;
+        private AbstractFileImpl(Path path, BasicFileAttributes attrs) {
+            this.path = path;
+            this.attrs = attrs;
         }
 
         @Override
-        public boolean accept(File pathname) {
-            return filter.accept(new AbstractFileImpl(pathname));
+        public boolean isFile() {
+            return attrs.isRegularFile();
         }
-    }
 
-    private static class AbstractFileImpl implements AbstractFile {
-        private final File file;
+        @Override
+        public boolean isDirectory() {
+            return attrs.isDirectory();
+        }
 
-        private AbstractFileImpl(File file) {
-            this.file = file;
+        @Override
+        public String getName() {
+            return path.getFileName().toString();
         }
 
         @Override
-        public boolean isFile() {
-            return file.isFile();
+        public long getSize() {
+            return attrs.size();
         }
 
         @Override
-        public boolean isDirectory() {
-            return file.isDirectory();
+        public long getModified() {
+            return attrs.lastModifiedTime().toMillis();
         }
 
         @Override
-        public String getName() {
-            return file.getName();
+        public Object getFileKey() {
+            return attrs.fileKey();
         }
 
         @Override
         public File asFile() {
-            return file;
+            return path.toFile();
         }
     }
 
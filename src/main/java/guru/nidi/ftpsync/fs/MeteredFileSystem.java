@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync.fs;
+
+import guru.nidi.ftpsync.metrics.Metrics;
+import guru.nidi.ftpsync.metrics.Timer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the duration and the transferred bytes of every operation in {@link Metrics}.
+ * The operations are named by the method, prefixed with the given name.
+ */
+public class MeteredFileSystem implements FileSystem {
+    private final FileSystem delegate;
+    private final Metrics metrics;
+    private final String prefix;
+
+    public MeteredFileSystem(FileSystem delegate, Metrics metrics, String prefix) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+        this.prefix = prefix + ".";
+    }
+
+    private Timer timer(String operation) {
+        return metrics.timer(prefix + operation);
+    }
+
+    private static long length(List<File> files) {
+        long res = 0;
+        for (File file : files) {
+            res += file.length();
+        }
+        return res;
+    }
+
+    @Override
+    public String getBasedir() {
+        return delegate.getBasedir();
+    }
+
+    @Override
+    public boolean canDeleteTree() throws IOException {
+        return delegate.canDeleteTree();
+    }
+
+    @Override
+    public boolean canPutFiles() throws IOException {
+        return delegate.canPutFiles();
+    }
+
+    @Override
+    public boolean canHashFiles() throws IOException {
+        return delegate.canHashFiles();
+    }
+
+    @Override
+    public void deleteFile(String name) throws IOException {
+        final Timer timer = timer("deleteFile");
+        final long start = timer.start();
+        try {
+            delegate.deleteFile(name);
+            timer.stop(start, 0);
+        } catch (IOException | RuntimeException e) {
+            timer.failed();
+            throw e;
+        }
+    }
+
+    @Override
+    public void deleteDirectory(String name) throws IOException {
+        final Timer timer = timer("deleteDirectory");
+        final long start = timer.start();
+        try {
+            delegate.deleteDirectory(name);
+            timer.stop(start, 0);
+        } catch (IOException | RuntimeException e) {
+            timer.failed();
+            throw e;
+        }
+    }
+
+    @Override
+    public void deleteTree(String name) throws IOException {
+        final Timer timer = timer("deleteTree");
+        final long start = timer.start();
+        try {
+            delegate.deleteTree(name);
+            timer.stop(start, 0);
+        } catch (IOException | RuntimeException e) {
+            timer.failed();
+            throw e;
+        }
+    }
+
+    @Override
+    public void putFile(File local, String dest) throws IOException {
+        final Timer timer = timer("putFile");
+        final long start = timer.start();
+        try {
+            delegate.putFile(local, dest);
+            timer.stop(start, local.length());
+        } catch (IOException | RuntimeException e) {
+            timer.failed();
+            throw e;
+        }
+    }
+
+    @Override
+    public void putFile(File local, String dest, long offset) throws IOException {
+        final Timer timer = timer("putFile");
+        final long start = timer.start();
+        try {
+            delegate.putFile(local, dest, offset);
+            timer.stop(start, local.length() - offset);
+        } catch (IOException | RuntimeException e) {
+            timer.failed();
+            throw e;
+        }
+    }
+
+    @Override
+    public void putFiles(List<File> locals, List<String> dests) throws IOException {
+        final Timer timer = timer("putFiles");
+        final long start = timer.start();
+        try {
+            delegate.putFiles(locals, dests);
+            timer.stop(start, length(locals));
+        } catch (IOException | RuntimeException e) {
+            timer.failed();
+            throw e;
+        }
+    }
+
+    @Override
+    public long getSize(String name) throws IOException {
+        final Timer timer = timer("getSize");
+        final long start = timer.start();
+        try {
+            final long res = delegate.getSize(name);
+            timer.stop(start, 0);
+            return res;
+        } catch (IOException | RuntimeException e) {
+            timer.failed();
+            throw e;
+        }
+    }
+
+    @Override
+    public void getFile(File local, String dest) throws IOException {
+        final Timer timer = timer("getFile");
+        final long start = timer.start();
+        try {
+            delegate.getFile(local, dest);
+            timer.stop(start, local.length());
+        } catch (IOException | RuntimeException e) {
+            timer.failed();
+            throw e;
+        }
+    }
+
+    @Override
+    public void createDirectory(String name) throws IOException {
+        final Timer timer = timer("createDirectory");
+        final long start = timer.start();
+        try {
+            delegate.createDirectory(name);
+            timer.stop(start, 0);
+        } catch (IOException | RuntimeException e) {
+            timer.failed();
+            throw e;
+        }
+    }
+
+    @Override
+    public Map<String, String> hashFiles(String dir) throws IOException {
+        final Timer timer = timer("hashFiles");
+        final long start = timer.start();
+        try {
+            final Map<String, String> res = delegate.hashFiles(dir);
+            timer.stop(start, 0);
+            return res;
+        } catch (IOException | RuntimeException e) {
+            timer.failed();
+            throw e;
+        }
+    }
+
+    @Override
+    public String hashFile(String name, long length) throws IOException {
+        final Timer timer = timer("hashFile");
+        final long start = timer.start();
+        try {
+            final String res = delegate.hashFile(name, length);
+            timer.stop(start, 0);
+            return res;
+        } catch (IOException | RuntimeException e) {
+            timer.failed();
+            throw e;
+        }
+    }
+
+    @Override
+    public List<AbstractFile> listFiles(String dir, AbstractFileFilter filter) throws IOException {
+        final Timer timer = timer("listFiles");
+        final long start = timer.start();
+        try {
+            final List<AbstractFile> res = delegate.listFiles(dir, filter);
+            timer.stop(start, 0);
+            return res;
+        } catch (IOException | RuntimeException e) {
+            timer.failed();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync.fs;
+
+import guru.nidi.ftpsync.FtpException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Opens a new connection when an operation has failed.
+ * Uploads are retried and continue where the failed attempt stopped, if the remote file cannot contain foreign data.
+ * A negative reply of the server ({@link FtpException}) is not regarded as a failed connection.
+ */
+public class ResumingFileSystem implements FileSystem {
+    private static final int ATTEMPTS = 5;
+    private static final long RETRY_DELAY = 2000;
+
+    /**
+     * Files smaller than this are uploaded completely again instead of being continued.
+     */
+    public static final long RESUMABLE_SIZE = 1024 * 1024;
+
+    private final FileSystemFactory factory;
+    private final long retryDelay;
+    private final String basedir;
+    private FileSystem delegate;
+
+    public ResumingFileSystem(FileSystemFactory factory) throws IOException {
+        this(factory, RETRY_DELAY);
+    }
+
+    /**
+     * @param retryDelay the time to wait before the second attempt, it grows with every attempt.
+     */
+    ResumingFileSystem(FileSystemFactory factory, long retryDelay) throws IOException {
+        this.factory = factory;
+        this.retryDelay = retryDelay;
+        delegate = factory.create();
+        basedir = delegate.getBasedir();
+    }
+
+    private FileSystem delegate() throws IOException {
+        if (delegate == null) {
+            delegate = factory.create();
+        }
+        return delegate;
+    }
+
+    private void failed(IOException e) {
+        if (!(e instanceof FtpException) && delegate != null) {
+            try {
+                delegate.close();
+            } catch (IOException ce) {
+                //the connection is broken anyway
+            }
+            delegate = null;
+        }
+    }
+
+    @Override
+    public String getBasedir() {
+        return basedir;
+    }
+
+    @Override
+    public void deleteFile(String name) throws IOException {
+        try {
+            delegate().deleteFile(name);
+        } catch (IOException e) {
+            failed(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void deleteDirectory(String name) throws IOException {
+        try {
+            delegate().deleteDirectory(name);
+        } catch (IOException e) {
+            failed(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean canDeleteTree() throws IOException {
+        try {
+            return delegate().canDeleteTree();
+        } catch (IOException e) {
+            failed(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void deleteTree(String name) throws IOException {
+        try {
+            delegate().deleteTree(name);
+        } catch (IOException e) {
+            failed(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void putFile(File local, String dest) throws IOException {
+        putFile(local, dest, 0);
+    }
+
+    /**
+     * A failed attempt is continued only if the remote file holds nothing but data of this upload:
+     * the first offset bytes the caller vouches for, and what the attempts have written after them.
+     * Otherwise an attempt failing before the server truncated the file would leave the old content,
+     * and the next attempt would append to it. So an old remote file is removed before a fresh upload.
+     */
+    @Override
+    public void putFile(File local, String dest, long offset) throws IOException {
+        final long known = offset;
+        boolean clean = offset > 0;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                if (attempt > 1 && clean) {
+                    final long size = delegate().getSize(dest);
+                    offset = size >= known && size <= local.length() ? size : 0;
+                    clean = offset > 0 || size <= 0;
+                }
+                if (!clean && local.length() >= RESUMABLE_SIZE) {
+                    removeOld(delegate(), dest);
+                    clean = true;
+                }
+                if (offset == 0) {
+                    delegate().putFile(local, dest);
+                } else {
+                    delegate().putFile(local, dest, offset);
+                }
+                return;
+            } catch (IOException e) {
+                failed(e);
+                if (e instanceof FtpException || attempt == ATTEMPTS) {
+                    throw e;
+                }
+            }
+            pause(attempt);
+        }
+    }
+
+    /**
+     * Removes the remote file, so that everything found there afterwards has been written by the current upload.
+     */
+    public static void removeOld(FileSystem fileSystem, String dest) throws IOException {
+        if (fileSystem.getSize(dest) > 0) {
+            fileSystem.deleteFile(dest);
+        }
+    }
+
+    @Override
+    public boolean canPutFiles() throws IOException {
+        try {
+            return delegate().canPutFiles();
+        } catch (IOException e) {
+            failed(e);
+            throw e;
+        }
+    }
+
+    /**
+     * A failed bulk upload is repeated completely.
+     */
+    @Override
+    public void putFiles(List<File> locals, List<String> dests) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                delegate().putFiles(locals, dests);
+                return;
+            } catch (IOException e) {
+                failed(e);
+                if (e instanceof FtpException || attempt == ATTEMPTS) {
+                    throw e;
+                }
+            }
+            pause(attempt);
+        }
+    }
+
+    private void pause(int attempt) throws IOException {
+        try {
+            Thread.sleep(attempt * retryDelay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to retry", e);
+        }
+    }
+
+    @Override
+    public long getSize(String name) throws IOException {
+        try {
+            return delegate().getSize(name);
+        } catch (IOException e) {
+            failed(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void getFile(File local, String dest) throws IOException {
+        try {
+            delegate().getFile(local, dest);
+        } catch (IOException e) {
+            failed(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void createDirectory(String name) throws IOException {
+        try {
+            delegate().createDirectory(name);
+        } catch (IOException e) {
+            failed(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean canHashFiles() throws IOException {
+        try {
+            return delegate().canHashFiles();
+        } catch (IOException e) {
+            failed(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public Map<String, String> hashFiles(String dir) throws IOException {
+        try {
+            return delegate().hashFiles(dir);
+        } catch (IOException e) {
+            failed(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public String hashFile(String name, long length) throws IOException {
+        try {
+            return delegate().hashFile(name, length);
+        } catch (IOException e) {
+            failed(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public List<AbstractFile> listFiles(String dir, AbstractFileFilter filter) throws IOException {
+        try {
+            return delegate().listFiles(dir, filter);
+        } catch (IOException e) {
+            failed(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (delegate != null) {
+            delegate.close();
+            delegate = null;
+        }
+    }
+}
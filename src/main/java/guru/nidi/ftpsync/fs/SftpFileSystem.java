@@ -17,14 +17,21 @@ package guru.nidi.ftpsync.fs;
 
 import guru.nidi.ftpsync.Config;
 import net.schmizz.sshj.SSHClient;
-import net.schmizz.sshj.sftp.RemoteResourceFilter;
-import net.schmizz.sshj.sftp.RemoteResourceInfo;
-import net.schmizz.sshj.sftp.SFTPClient;
+import net.schmizz.sshj.common.IOUtils;
+import net.schmizz.sshj.connection.channel.direct.Session;
+import net.schmizz.sshj.sftp.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  *
@@ -32,12 +39,25 @@ import java.util.List;
 public class SftpFileSystem extends FileSystemBase {
     private final SSHClient ssh;
     private final SFTPClient client;
+    private final int bufferSize;
+    private final int requests;
+    private final boolean bulk;
+    private final boolean remoteHashing;
 
     public SftpFileSystem(String basedir, Config config) throws IOException {
         super(basedir);
         ssh = new SSHClient();
         ssh.loadKnownHosts();
+        if (config.getCompression() != null) {
+            //SSH compresses the whole connection, so the policy cannot be applied per file
+            ssh.useCompression();
+        }
+        if (config.getSocketBufferSize() > 0) {
+            //before connecting, the window scale is negotiated during the handshake
+            ssh.setSocketFactory(new TunedSocketFactory(config.getSocketBufferSize()));
+        }
         ssh.connect(config.getHost());
+        ssh.getSocket().setTcpNoDelay(config.isTcpNoDelay());
         if (config.getPassword() != null) {
             ssh.authPassword(config.getUsername(), config.getPassword());
         } else {
@@ -45,6 +65,18 @@ public class SftpFileSystem extends FileSystemBase {
         }
         client = ssh.newSFTPClient();
         client.getFileTransfer().setPreserveAttributes(false);
+        bufferSize = config.getBufferSize();
+        requests = Math.max(1, config.getSftpRequests());
+        bulk = config.isBulk();
+        remoteHashing = config.isRemoteHashing();
+    }
+
+    /**
+     * @return the number of bytes sent per write request. Larger requests than the server accepts are cut down.
+     */
+    private int chunkSize(RemoteFile remote) {
+        final int max = client.getSFTPEngine().getSubsystem().getRemoteMaxPacketSize() - remote.getOutgoingPacketOverhead();
+        return bufferSize > 0 ? Math.min(bufferSize, max) : max;
     }
 
     public void close() throws IOException {
@@ -60,16 +92,174 @@ public class SftpFileSystem extends FileSystemBase {
         client.rmdir(expand(name));
     }
 
+    public boolean canDeleteTree() {
+        return bulk;
+    }
+
+    public void deleteTree(String name) throws IOException {
+        if (!bulk) {
+            throw new UnsupportedOperationException("Recursive deletion needs bulk mode");
+        }
+        exec("rm -rf -- " + quote(expand(name)), null);
+    }
+
     public void putFile(File local, String dest) throws IOException {
-        client.put(local.getAbsolutePath(), expand(dest));
+        upload(local, dest, 0, EnumSet.of(OpenMode.WRITE, OpenMode.CREAT, OpenMode.TRUNC));
+    }
+
+    public void putFile(File local, String dest, long offset) throws IOException {
+        upload(local, dest, offset, EnumSet.of(OpenMode.WRITE, OpenMode.CREAT));
+    }
+
+    /**
+     * Sends write requests of the configured size, without waiting for the reply to the previous ones
+     * until the configured number of requests is outstanding.
+     */
+    private void upload(File local, String dest, long offset, Set<OpenMode> modes) throws IOException {
+        try (final RemoteFile remote = client.open(expand(dest), modes)) {
+            FsUtils.copy(Transfers.wrap(FsUtils.openAt(local, offset)), remote.new RemoteFileOutputStream(offset, requests), chunkSize(remote));
+        }
+    }
+
+    public boolean canPutFiles() {
+        return bulk;
+    }
+
+    /**
+     * Streams a tar archive of the files to a remote tar process, so that all files are sent without waiting
+     * for a reply.
+     */
+    public void putFiles(final List<File> locals, final List<String> dests) throws IOException {
+        if (!bulk) {
+            throw new UnsupportedOperationException("Bulk upload needs bulk mode");
+        }
+        exec("tar -x -m -f - -C " + quote(expand("/")), new Input() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+                try (final TarOutputStream tar = new TarOutputStream(out)) {
+                    for (int i = 0; i < locals.size(); i++) {
+                        tar.putFile(relative(dests.get(i)), locals.get(i));
+                    }
+                    tar.finish();
+                }
+            }
+        });
+    }
+
+    public boolean canHashFiles() {
+        return remoteHashing;
+    }
+
+    /**
+     * Runs <code>md5sum</code> for all files of the directory at once.
+     * Files whose name <code>md5sum</code> must escape are left out, as are files it could not read
+     * (it exits with status 1 then), they are uploaded.
+     */
+    public Map<String, String> hashFiles(String dir) throws IOException {
+        if (!remoteHashing) {
+            throw new UnsupportedOperationException("Remote hashing is not enabled");
+        }
+        final String output = exec("cd " + quote(expand(dir)) + " && find . -maxdepth 1 -type f -exec md5sum -- {} +", null, 1);
+        final Map<String, String> res = new HashMap<>();
+        for (String line : output.split("\n")) {
+            //32 hex digits, 2 spaces, the name as given by find: ./<name>
+            if (line.length() > 36 && !line.startsWith("\\") && line.startsWith("  ./", 32)) {
+                res.put(line.substring(36), line.substring(0, 32));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * If the file is shorter or cannot be read, the digest of what <code>head</code> could read is returned.
+     */
+    public String hashFile(String name, long length) throws IOException {
+        if (!remoteHashing) {
+            throw new UnsupportedOperationException("Remote hashing is not enabled");
+        }
+        final String output = exec("head -c " + length + " -- " + quote(expand(name)) + " | md5sum", null);
+        if (output.length() < 32) {
+            throw new IOException("Unexpected output of md5sum: " + output);
+        }
+        return output.substring(0, 32);
+    }
+
+    private interface Input {
+        void write(OutputStream out) throws IOException;
+    }
+
+    private String exec(String command, Input input) throws IOException {
+        return exec(command, input, 0);
+    }
+
+    /**
+     * Runs a command with the remote shell.
+     *
+     * @param input     writes the standard input of the command, can be null.
+     * @param maxStatus the highest exit status that does not mean failure.
+     * @return the standard output of the command.
+     * @throws IOException if the command exits with a higher status.
+     */
+    private String exec(String command, Input input, int maxStatus) throws IOException {
+        try (final Session session = ssh.startSession()) {
+            final Session.Command cmd = session.exec(command);
+            //read concurrently, a command writing much to stderr would otherwise block when the channel window is full
+            final ByteArrayOutputStream errors = new ByteArrayOutputStream();
+            final Thread errorReader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        FsUtils.copy(cmd.getErrorStream(), errors);
+                    } catch (IOException e) {
+                        //the command fails anyway
+                    }
+                }
+            }, "ssh-stderr");
+            errorReader.start();
+            if (input != null) {
+                input.write(cmd.getOutputStream());
+            }
+            final String output = IOUtils.readFully(cmd.getInputStream()).toString("utf-8");
+            try {
+                errorReader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while running '" + command + "'");
+            }
+            final String error = errors.toString("utf-8");
+            cmd.join();
+            if (cmd.getExitStatus() == null || cmd.getExitStatus() < 0 || cmd.getExitStatus() > maxStatus) {
+                throw new IOException("Remote command '" + command + "' failed: " + error.trim());
+            }
+            return output;
+        }
+    }
+
+    private static String quote(String s) {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+
+    public long getSize(String name) throws IOException {
+        final FileAttributes attrs = client.statExistence(expand(name));
+        return attrs == null ? -1 : attrs.getSize();
     }
 
     public void getFile(File local, String dest) throws IOException {
         client.get(local.getAbsolutePath(), expand(dest));
     }
 
+    /**
+     * Creates the directory with one round trip. Only if the parent does not exist, all missing ancestors are created.
+     */
     public void createDirectory(String name) throws IOException {
-        client.mkdirs(expand(name));
+        try {
+            client.mkdir(expand(name));
+        } catch (SFTPException e) {
+            if (e.getStatusCode() != Response.StatusCode.NO_SUCH_FILE) {
+                throw e;
+            }
+            client.mkdirs(expand(name));
+        }
     }
 
     @Override
@@ -116,6 +306,21 @@ public class SftpFileSystem extends FileSystemBase {
             return info.getName();
         }
 
+        @Override
+        public long getSize() {
+            return info.getAttributes().getSize();
+        }
+
+        @Override
+        public long getModified() {
+            return info.getAttributes().getMtime() * 1000;
+        }
+
+        @Override
+        public Object getFileKey() {
+            return null;
+        }
+
         @Override
         public File asFile() {
             throw new UnsupportedOperationException();
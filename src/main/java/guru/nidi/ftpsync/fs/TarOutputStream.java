@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync.fs;
+
+import java.io.*;
+import java.nio.charset.Charset;
+
+/**
+ * Writes regular files in the tar format understood by GNU and busybox tar.
+ * Names longer than 100 bytes are written as GNU long name entries.
+ */
+class TarOutputStream implements Closeable {
+    private static final Charset UTF8 = Charset.forName("utf-8");
+    private static final int BLOCK = 512;
+    private static final String LONG_NAME = "././@LongLink";
+
+    private final OutputStream out;
+
+    TarOutputStream(OutputStream out) {
+        this.out = new BufferedOutputStream(out, 64 * 1024);
+    }
+
+    /**
+     * @param name the path of the file in the archive, relative to the directory it is extracted to.
+     */
+    public void putFile(String name, File file) throws IOException {
+        final byte[] bytes = name.getBytes(UTF8);
+        if (bytes.length > 100) {
+            writeHeader(LONG_NAME.getBytes(UTF8), bytes.length + 1, 0, 'L');
+            out.write(bytes);
+            out.write(0);
+            pad(bytes.length + 1);
+        }
+        final long size = file.length();
+        writeHeader(bytes, size, file.lastModified() / 1000, '0');
+        long written = 0;
+        try (final InputStream in = Transfers.wrap(new FileInputStream(file))) {
+            final byte[] buf = new byte[64 * 1024];
+            int read;
+            while (written < size && (read = in.read(buf, 0, (int) Math.min(buf.length, size - written))) > 0) {
+                out.write(buf, 0, read);
+                written += read;
+            }
+        }
+        if (written != size) {
+            throw new IOException("File " + file + " has changed while writing it");
+        }
+        pad(size);
+    }
+
+    private void writeHeader(byte[] name, long size, long modified, char type) throws IOException {
+        final byte[] header = new byte[BLOCK];
+        System.arraycopy(name, 0, header, 0, Math.min(name.length, 100));
+        octal(header, 100, 8, 0644);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, size);
+        octal(header, 136, 12, modified);
+        header[156] = (byte) type;
+        System.arraycopy("ustar  \0".getBytes(UTF8), 0, header, 257, 8);
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        octal(header, 148, 7, checksum);
+        out.write(header);
+    }
+
+    /**
+     * Writes the value with leading zeros, terminated by a null byte.
+     */
+    private static void octal(byte[] header, int offset, int length, long value) throws IOException {
+        final String s = Long.toOctalString(value);
+        if (s.length() >= length) {
+            throw new IOException("Value " + value + " too large for tar header");
+        }
+        for (int i = 0; i < length - 1 - s.length(); i++) {
+            header[offset + i] = '0';
+        }
+        System.arraycopy(s.getBytes(UTF8), 0, header, offset + length - 1 - s.length(), s.length());
+        header[offset + length - 1] = 0;
+    }
+
+    private void pad(long size) throws IOException {
+        final int rest = (int) (size % BLOCK);
+        if (rest > 0) {
+            out.write(new byte[BLOCK - rest]);
+        }
+    }
+
+    /**
+     * Writes the end of archive marker. Without it, the archive is incomplete.
+     */
+    public void finish() throws IOException {
+        out.write(new byte[2 * BLOCK]);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
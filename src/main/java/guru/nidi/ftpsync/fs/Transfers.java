@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync.fs;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Lets listeners follow the data read from local files while they are uploaded.
+ * As long as no listener is registered, the streams are not wrapped at all.
+ */
+public final class Transfers {
+    public interface Listener {
+        /**
+         * Called by the uploading thread after every read.
+         */
+        void transferred(long bytes) throws IOException;
+    }
+
+    private static final List<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    private Transfers() {
+    }
+
+    public static void addListener(Listener listener) {
+        LISTENERS.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * @return a stream informing the listeners about every read.
+     */
+    static InputStream wrap(InputStream in) {
+        if (LISTENERS.isEmpty()) {
+            return in;
+        }
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                final int res = super.read();
+                if (res >= 0) {
+                    transferred(1);
+                }
+                return res;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                final int res = super.read(b, off, len);
+                if (res > 0) {
+                    transferred(res);
+                }
+                return res;
+            }
+        };
+    }
+
+    private static void transferred(long bytes) throws IOException {
+        for (Listener listener : LISTENERS) {
+            listener.transferred(bytes);
+        }
+    }
+}
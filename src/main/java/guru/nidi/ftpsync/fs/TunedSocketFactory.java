@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync.fs;
+
+import javax.net.ServerSocketFactory;
+import javax.net.SocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Creates sockets with the given buffer sizes, set before they connect so that the TCP window scale can follow.
+ * Used for the data connections of FTP, which are opened by the client library and cannot be configured otherwise,
+ * and for SSH connections.
+ */
+class TunedSocketFactory extends SocketFactory {
+    private final int bufferSize;
+
+    TunedSocketFactory(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @return a factory for the sockets accepting active mode data connections. Accepted sockets inherit its buffer size.
+     */
+    ServerSocketFactory serverSocketFactory() {
+        return new ServerSocketFactory() {
+            @Override
+            public ServerSocket createServerSocket() throws IOException {
+                final ServerSocket socket = new ServerSocket();
+                socket.setReceiveBufferSize(bufferSize);
+                return socket;
+            }
+
+            @Override
+            public ServerSocket createServerSocket(int port) throws IOException {
+                return createServerSocket(port, 50);
+            }
+
+            @Override
+            public ServerSocket createServerSocket(int port, int backlog) throws IOException {
+                return createServerSocket(port, backlog, null);
+            }
+
+            @Override
+            public ServerSocket createServerSocket(int port, int backlog, InetAddress address) throws IOException {
+                final ServerSocket socket = createServerSocket();
+                socket.bind(new InetSocketAddress(address, port), backlog);
+                return socket;
+            }
+        };
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        final Socket socket = new Socket();
+        socket.setSendBufferSize(bufferSize);
+        socket.setReceiveBufferSize(bufferSize);
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return createSocket(InetAddress.getByName(host), port);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localAddress, int localPort) throws IOException {
+        return createSocket(InetAddress.getByName(host), port, localAddress, localPort);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port) throws IOException {
+        final Socket socket = createSocket();
+        socket.connect(new InetSocketAddress(address, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        final Socket socket = createSocket();
+        socket.bind(new InetSocketAddress(localAddress, localPort));
+        socket.connect(new InetSocketAddress(address, port));
+        return socket;
+    }
+}
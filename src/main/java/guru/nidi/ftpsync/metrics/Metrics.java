@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The metrics of a sync: a {@link Timer} per operation and the wall time per phase.
+ * They are exposed via JMX while the sync is running and can be written as JSON.
+ */
+public class Metrics implements MetricsMXBean, Closeable {
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> phases = new ConcurrentHashMap<>();
+    private ObjectName name;
+
+    public Timer timer(String operation) {
+        Timer timer = timers.get(operation);
+        if (timer == null) {
+            final Timer created = new Timer();
+            timer = timers.putIfAbsent(operation, created);
+            if (timer == null) {
+                timer = created;
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Adds the time spent in a phase. Phases can be repeated.
+     */
+    public void phase(String phase, long millis) {
+        AtomicLong total = phases.get(phase);
+        if (total == null) {
+            final AtomicLong created = new AtomicLong();
+            total = phases.putIfAbsent(phase, created);
+            if (total == null) {
+                total = created;
+            }
+        }
+        total.addAndGet(millis);
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server.
+     *
+     * @param id distinguishes the metrics of concurrent syncs in the same process.
+     */
+    public void register(String id) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = new ObjectName("guru.nidi.ftpsync:type=Metrics,name=" + ObjectName.quote(id));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+            name = objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register metrics", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                //not registered anymore
+            }
+            name = null;
+        }
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        final Map<String, Long> res = new TreeMap<>();
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            res.put(entry.getKey(), entry.getValue().getCount());
+        }
+        return res;
+    }
+
+    @Override
+    public Map<String, Long> getErrors() {
+        final Map<String, Long> res = new TreeMap<>();
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            res.put(entry.getKey(), entry.getValue().getErrors());
+        }
+        return res;
+    }
+
+    @Override
+    public Map<String, Long> getBytes() {
+        final Map<String, Long> res = new TreeMap<>();
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            res.put(entry.getKey(), entry.getValue().getBytes());
+        }
+        return res;
+    }
+
+    @Override
+    public Map<String, Double> getMeanMillis() {
+        final Map<String, Double> res = new TreeMap<>();
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            res.put(entry.getKey(), entry.getValue().getMeanMillis());
+        }
+        return res;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseMillis() {
+        final Map<String, Long> res = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : phases.entrySet()) {
+            res.put(entry.getKey(), entry.getValue().get());
+        }
+        return res;
+    }
+
+    @Override
+    public String getJson() {
+        final StringBuilder s = new StringBuilder("{\n  \"phases\": {");
+        boolean first = true;
+        for (Map.Entry<String, Long> entry : getPhaseMillis().entrySet()) {
+            s.append(first ? "\n" : ",\n").append("    \"").append(entry.getKey()).append("\": ").append(entry.getValue());
+            first = false;
+        }
+        s.append("\n  },\n  \"operations\": {");
+        first = true;
+        for (Map.Entry<String, Timer> entry : new TreeMap<>(timers).entrySet()) {
+            s.append(first ? "\n" : ",\n").append("    \"").append(entry.getKey()).append("\": ");
+            entry.getValue().appendJson(s);
+            first = false;
+        }
+        return s.append("\n  }\n}\n").toString();
+    }
+
+    public void writeJson(File file) throws IOException {
+        try (final Writer out = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("utf-8"))) {
+            out.write(getJson());
+        }
+    }
+}
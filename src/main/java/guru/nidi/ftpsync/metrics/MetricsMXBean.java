@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync.metrics;
+
+import java.util.Map;
+
+/**
+ * The metrics of the running sync as seen by JMX clients.
+ */
+public interface MetricsMXBean {
+    /**
+     * @return the number of calls by operation.
+     */
+    Map<String, Long> getCounts();
+
+    Map<String, Long> getErrors();
+
+    Map<String, Long> getBytes();
+
+    Map<String, Double> getMeanMillis();
+
+    /**
+     * @return the wall time spent in each phase.
+     */
+    Map<String, Long> getPhaseMillis();
+
+    /**
+     * @return everything as written to the summary.
+     */
+    String getJson();
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the calls of an operation with the bytes they transferred and the distribution of their duration.
+ * The durations are recorded in buckets growing by powers of two, starting at one microsecond.
+ * Recording costs a few atomic increments, it can be called concurrently.
+ */
+public class Timer {
+    private static final int BUCKETS = 40;
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    /**
+     * @return the start time to be passed to {@link #stop(long, long)}.
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    public void stop(long start, long transferred) {
+        final long duration = System.nanoTime() - start;
+        count.incrementAndGet();
+        bytes.addAndGet(transferred);
+        nanos.addAndGet(duration);
+        long max;
+        while (duration > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, duration)) {
+        }
+        final long micros = duration / 1000;
+        final int bucket = micros <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        histogram.incrementAndGet(bucket);
+    }
+
+    /**
+     * Records a failed call. Its duration is not recorded.
+     */
+    public void failed() {
+        errors.incrementAndGet();
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public double getTotalMillis() {
+        return nanos.get() / 1e6;
+    }
+
+    public double getMeanMillis() {
+        final long c = count.get();
+        return c == 0 ? 0 : nanos.get() / 1e6 / c;
+    }
+
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    /**
+     * @return the upper bound of the bucket containing the given percentile of the durations, at most the maximum.
+     */
+    public double getPercentileMillis(double percentile) {
+        final long c = count.get();
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram.get(i);
+            if (seen > 0 && seen >= c * percentile / 100) {
+                return Math.min(upperBoundMicros(i) / 1000.0, getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+
+    private static long upperBoundMicros(int bucket) {
+        return 1L << bucket;
+    }
+
+    void appendJson(StringBuilder s) {
+        s.append(String.format(Locale.ENGLISH,
+                "{\"count\": %d, \"errors\": %d, \"bytes\": %d, \"totalMillis\": %.3f, \"meanMillis\": %.3f, "
+                        + "\"p50Millis\": %.3f, \"p90Millis\": %.3f, \"p99Millis\": %.3f, \"maxMillis\": %.3f, \"histogram\": {",
+                getCount(), getErrors(), getBytes(), getTotalMillis(), getMeanMillis(),
+                getPercentileMillis(50), getPercentileMillis(90), getPercentileMillis(99), getMaxMillis()));
+        boolean first = true;
+        for (int i = 0; i < BUCKETS; i++) {
+            final long value = histogram.get(i);
+            if (value > 0) {
+                s.append(first ? "" : ", ").append("\"<=").append(upperBoundMicros(i)).append("us\": ").append(value);
+                first = false;
+            }
+        }
+        s.append("}}");
+    }
+}
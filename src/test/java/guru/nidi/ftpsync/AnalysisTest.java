@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import guru.nidi.ftpsync.fs.AbstractFile;
+import guru.nidi.ftpsync.fs.AbstractFileFilter;
+import guru.nidi.ftpsync.fs.LocalFileSystem;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AnalysisTest {
+    private static final AbstractFileFilter ALL = new AbstractFileFilter() {
+        @Override
+        public boolean accept(AbstractFile file) {
+            return true;
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File syncFile;
+    private File source;
+    private byte[] data;
+
+    @Before
+    public void setUp() throws IOException {
+        syncFile = folder.newFile("sync");
+        source = folder.newFolder("src");
+        data = new byte[1000];
+        new Random(1).nextBytes(data);
+        write(data);
+        final List<Upload> uploads = uploads();
+        assertEquals(1, uploads.size());
+        assertEquals(0, uploads.get(0).getOffset());
+    }
+
+    private void write(byte[] content) throws IOException {
+        Files.write(new File(source, "a").toPath(), content);
+    }
+
+    /**
+     * Analyzes the source directory with the saved state and records the uploads as done.
+     */
+    private List<Upload> uploads() throws IOException {
+        try (final Analysis analysis = new Analysis(syncFile, false)) {
+            analysis.start(false);
+            final List<Upload> uploads = analysis.uploads("/", new LocalFileSystem(source.getPath()).listFiles("/", ALL));
+            for (Upload upload : uploads) {
+                analysis.copied(upload.getName(), upload.getState());
+            }
+            analysis.saveState();
+            return uploads;
+        }
+    }
+
+    @Test
+    public void unchanged() throws IOException {
+        assertTrue(uploads().isEmpty());
+    }
+
+    @Test
+    public void appendedIsUploadedFromTheOldSize() throws IOException {
+        final byte[] grown = Arrays.copyOf(data, 1500);
+        write(grown);
+        final List<Upload> uploads = uploads();
+        assertEquals(1, uploads.size());
+        assertEquals("/a", uploads.get(0).getName());
+        assertEquals(1000, uploads.get(0).getOffset());
+        assertEquals(1500, uploads.get(0).getState().getSize());
+    }
+
+    @Test
+    public void changedPrefixIsUploadedCompletely() throws IOException {
+        final byte[] grown = Arrays.copyOf(data, 1500);
+        grown[10]++;
+        write(grown);
+        final List<Upload> uploads = uploads();
+        assertEquals(1, uploads.size());
+        assertEquals(0, uploads.get(0).getOffset());
+        assertEquals(1500, uploads.get(0).getState().getSize());
+    }
+
+    @Test
+    public void shrunkIsUploadedCompletely() throws IOException {
+        write(Arrays.copyOf(data, 500));
+        final List<Upload> uploads = uploads();
+        assertEquals(1, uploads.size());
+        assertEquals(0, uploads.get(0).getOffset());
+        assertEquals(500, uploads.get(0).getState().getSize());
+    }
+}
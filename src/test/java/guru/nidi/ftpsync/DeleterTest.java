@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import guru.nidi.ftpsync.fs.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DeleterTest {
+    private static final int THREADS = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Simulation simulation = new Simulation(0, 0, 0);
+    private final SimulatedFileSystem fs = new SimulatedFileSystem("", simulation);
+    private final FileSystemPool pool = new FileSystemPool(fs, new FileSystemFactory() {
+        @Override
+        public FileSystem create() {
+            return new SimulatedFileSystem("", simulation);
+        }
+    }, THREADS);
+    private final Progress progress = Progress.start();
+    private final Pipeline pipeline = new Pipeline(pool, progress);
+    private Analysis analysis;
+    private File content;
+
+    @Before
+    public void setUp() throws IOException {
+        analysis = new Analysis(folder.newFile("sync"), false);
+        analysis.start(false);
+        content = folder.newFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        pipeline.abort();
+        progress.stop();
+        pool.close();
+        analysis.close();
+    }
+
+    /**
+     * Creates directories with the given number of files and subdirectories, down to the given depth.
+     *
+     * @return all created entries, contents before their directory, directories with a trailing slash.
+     */
+    private List<String> createTree(String dir, int files, int dirs, int depth) throws IOException {
+        final List<String> entries = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            fs.putFile(content, dir + "f" + i);
+            analysis.copied(dir + "f" + i, FileState.ofHash(i));
+            entries.add(dir + "f" + i);
+        }
+        if (depth > 0) {
+            for (int i = 0; i < dirs; i++) {
+                final String sub = dir + "d" + i + "/";
+                fs.createDirectory(sub);
+                analysis.copied(sub.substring(0, sub.length() - 1), FileState.directory());
+                entries.addAll(createTree(sub, files, dirs, depth - 1));
+                entries.add(sub);
+            }
+        }
+        return entries;
+    }
+
+    private void assertEmpty() throws IOException {
+        assertTrue(fs.listFiles("/", new AbstractFileFilter() {
+            @Override
+            public boolean accept(AbstractFile file) {
+                return true;
+            }
+        }).isEmpty());
+        assertTrue(analysis.entriesBelow("/").isEmpty());
+    }
+
+    @Test
+    public void deleteAllContentsBeforeDirectories() throws IOException {
+        //a small queue makes the submitting thread wait while directories are deleted
+        final Deleter deleter = new Deleter(pipeline, THREADS, 1, analysis);
+        final List<String> entries = createTree("/", 1, 3, 3);
+        deleter.deleteAll(entries);
+        pipeline.finish();
+        assertEmpty();
+    }
+
+    @Test
+    public void deleteDirectoryListedLongAfterItsContents() throws IOException {
+        final Deleter deleter = new Deleter(pipeline, THREADS, 1, analysis);
+        createTree("/", 0, 2, 1);
+        createTree("/d0/", 1, 0, 0);
+        final List<String> entries = new ArrayList<>();
+        entries.add("/d0/f0");
+        //while these are submitted, /d0/ is deleted after its only file
+        entries.addAll(createTree("/d1/", 200, 0, 0));
+        entries.add("/d1/");
+        entries.add("/d0/");
+        deleter.deleteAll(entries);
+        pipeline.finish();
+        assertEmpty();
+    }
+
+    @Test
+    public void deleteDirectoryAfterItsEntries() throws IOException {
+        final Deleter deleter = new Deleter(pipeline, THREADS, 1, analysis);
+        createTree("/", 0, 1, 1);
+        createTree("/d0/", 20, 0, 0);
+        deleter.deleteDirectory("/d0", 20);
+        for (int i = 0; i < 20; i++) {
+            deleter.deleteFile("/d0/f" + i);
+        }
+        pipeline.finish();
+        assertEmpty();
+    }
+
+    @Test
+    public void deleteEmptyDirectory() throws IOException {
+        final Deleter deleter = new Deleter(pipeline, THREADS, 1, analysis);
+        createTree("/", 0, 1, 1);
+        deleter.deleteDirectory("/d0", 0);
+        pipeline.finish();
+        assertEmpty();
+    }
+
+    @Test
+    public void deleteTree() throws IOException {
+        simulation.setTreeDeletion(true);
+        final Deleter deleter = new Deleter(pipeline, THREADS, 1, analysis);
+        createTree("/", 2, 2, 2);
+        deleter.deleteTree("/d0");
+        deleter.deleteTree("/d1");
+        deleter.deleteFile("/f0");
+        deleter.deleteFile("/f1");
+        pipeline.finish();
+        assertEmpty();
+    }
+}
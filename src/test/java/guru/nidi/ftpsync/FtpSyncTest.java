@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import guru.nidi.ftpsync.fs.FileSystem;
+import guru.nidi.ftpsync.fs.FileSystemFactory;
+import guru.nidi.ftpsync.fs.ResumingFileSystem;
+import guru.nidi.ftpsync.fs.SimulatedFileSystem;
+import guru.nidi.ftpsync.fs.Simulation;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FtpSyncTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Simulation simulation = new Simulation(0, 0, 0);
+    private final List<Long> offsets = new ArrayList<>();
+    private boolean failBulk;
+    private boolean failAfterHalf;
+
+    private FtpSync sync(File source) throws IOException {
+        final Config config = new Config(new String[]{"-p", "simulated", source.getPath(), "sim@simulation:/"});
+        return new FtpSync(config, new FileSystemFactory() {
+            @Override
+            public FileSystem create() {
+                return new SimulatedFileSystem(config.getRemoteDir(), simulation) {
+                    @Override
+                    public void putFile(File local, String dest, long offset) throws IOException {
+                        offsets.add(offset);
+                        if (failAfterHalf) {
+                            final byte[] data = Files.readAllBytes(local.toPath());
+                            super.putFile(write(Arrays.copyOf(data, data.length / 2)), dest, offset);
+                            throw new FtpException("Could not write", new String[]{"disk full"});
+                        }
+                        super.putFile(local, dest, offset);
+                    }
+
+                    @Override
+                    public void putFiles(List<File> locals, List<String> dests) throws IOException {
+                        if (failBulk) {
+                            throw new FtpException("Could not extract", new String[]{"tar: write error"});
+                        }
+                        super.putFiles(locals, dests);
+                    }
+                };
+            }
+        });
+    }
+
+    private File write(byte[] data) throws IOException {
+        final File file = folder.newFile();
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    private byte[] remote(String name) throws IOException {
+        final File file = folder.newFile();
+        new SimulatedFileSystem("/", simulation).getFile(file, name);
+        return Files.readAllBytes(file.toPath());
+    }
+
+    private static byte[] content(int size, char c) {
+        final byte[] data = new byte[size];
+        Arrays.fill(data, (byte) c);
+        return data;
+    }
+
+    @Test
+    public void interruptedBatchIsNotResumed() throws IOException {
+        final File source = folder.newFolder("src");
+        final File file = new File(source, "a.txt");
+        Files.write(file.toPath(), content(1000, 'a'));
+        try (final FtpSync sync = sync(source)) {
+            sync.sync();
+            assertEquals(1000, simulation.getSize("/a.txt"));
+
+            final byte[] changed = content(2000, 'b');
+            Files.write(file.toPath(), changed);
+            simulation.setBulkUpload(true);
+            failBulk = true;
+            try {
+                sync.sync();
+                fail("The batch should have failed");
+            } catch (IOException e) {
+                //expected
+            }
+
+            //the old version is still there, it must not be taken as the beginning of the new one
+            simulation.setBulkUpload(false);
+            sync.sync();
+            assertArrayEquals(changed, remote("a.txt"));
+        }
+    }
+
+    /**
+     * Fails an upload after half of the file has been written.
+     *
+     * @param foreign if the written half is replaced by other data, as if someone else wrote the file.
+     * @return the offsets of the uploads of the following run.
+     */
+    private List<Long> resumeInterrupted(boolean foreign) throws IOException {
+        final File source = folder.newFolder("src");
+        final byte[] data = new byte[(int) ResumingFileSystem.RESUMABLE_SIZE * 2];
+        new Random(1).nextBytes(data);
+        Files.write(new File(source, "large").toPath(), data);
+        simulation.setHashing(true);
+        try (final FtpSync sync = sync(source)) {
+            failAfterHalf = true;
+            try {
+                sync.sync();
+                fail("The upload should have failed");
+            } catch (IOException e) {
+                //expected
+            }
+            assertEquals(data.length / 2, simulation.getSize("/large"));
+            if (foreign) {
+                new SimulatedFileSystem("/", simulation).putFile(write(content(data.length / 2, 'x')), "large");
+            }
+
+            failAfterHalf = false;
+            offsets.clear();
+            sync.sync();
+            assertArrayEquals(data, remote("large"));
+            return offsets;
+        }
+    }
+
+    @Test
+    public void interruptedUploadIsResumed() throws IOException {
+        assertEquals(Arrays.asList(ResumingFileSystem.RESUMABLE_SIZE), resumeInterrupted(false));
+    }
+
+    @Test
+    public void foreignDataIsNotResumed() throws IOException {
+        assertEquals(Arrays.asList(0L), resumeInterrupted(true));
+    }
+}
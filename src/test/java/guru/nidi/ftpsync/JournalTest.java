@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JournalTest {
+    private static final FileState STATE = new FileState(0x1234, 10, 20, 30);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static class Recorder implements Journal.Replay {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void remoteAnalysis() {
+            events.add("R");
+        }
+
+        @Override
+        public void deleted(String name) {
+            events.add("D " + name);
+        }
+
+        @Override
+        public void copied(String name, FileState state) {
+            assertEquals(STATE, state);
+            events.add("U " + name);
+        }
+    }
+
+    private File journal() {
+        return new File(folder.getRoot(), "sync.journal");
+    }
+
+    private List<String> replay(Journal journal) throws IOException {
+        final Recorder recorder = new Recorder();
+        journal.replay(recorder);
+        return recorder.events;
+    }
+
+    @Test
+    public void replayOperations() throws IOException {
+        try (final Journal journal = new Journal(journal())) {
+            journal.start(true);
+            journal.deleted("/a");
+            journal.copied("/b c", STATE);
+        }
+        assertEquals(Arrays.asList("R", "D /a", "U /b c"), replay(new Journal(journal())));
+    }
+
+    @Test
+    public void ignoreTruncatedLastLine() throws IOException {
+        try (final Journal journal = new Journal(journal())) {
+            journal.start(false);
+            journal.deleted("/a");
+        }
+        try (final OutputStream out = new FileOutputStream(journal(), true)) {
+            out.write("U 0000000000001234 000000000000000a 00000000000".getBytes("utf-8"));
+        }
+        assertEquals(Arrays.asList("D /a"), replay(new Journal(journal())));
+    }
+
+    @Test
+    public void startedUploadsSurviveCompaction() throws IOException {
+        try (final Journal journal = new Journal(journal())) {
+            journal.start(false);
+            journal.uploading("/big", 0x1234);
+            journal.uploading("/done", 0x5678);
+            journal.copied("/done", STATE);
+            journal.compacted();
+        }
+        final Journal journal = new Journal(journal());
+        assertEquals(Arrays.<String>asList(), replay(journal));
+        assertEquals(Long.valueOf(0x1234), journal.startedUpload("/big"));
+        assertNull(journal.startedUpload("/done"));
+    }
+
+    @Test
+    public void deletedWhenFinished() throws IOException {
+        final Journal journal = new Journal(journal());
+        journal.start(true);
+        journal.deleted("/a");
+        journal.finished();
+        assertFalse(journal().exists());
+        assertEquals(Arrays.<String>asList(), replay(new Journal(journal())));
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import guru.nidi.ftpsync.fs.FileSystem;
+import guru.nidi.ftpsync.fs.FileSystemFactory;
+import guru.nidi.ftpsync.fs.FileSystemPool;
+import guru.nidi.ftpsync.fs.SimulatedFileSystem;
+import guru.nidi.ftpsync.fs.Simulation;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PipelineTest {
+    private static final int CONNECTIONS = 2;
+
+    private final Simulation simulation = new Simulation(0, 0, 0);
+    private final FileSystemPool pool = new FileSystemPool(new SimulatedFileSystem("", simulation), new FileSystemFactory() {
+        @Override
+        public FileSystem create() {
+            return new SimulatedFileSystem("", simulation);
+        }
+    }, CONNECTIONS);
+    private final Progress progress = Progress.start();
+    private final Pipeline pipeline = new Pipeline(pool, progress);
+
+    @After
+    public void tearDown() throws IOException {
+        pipeline.abort();
+        progress.stop();
+        pool.close();
+    }
+
+    private abstract static class Worker implements Pipeline.Worker<Integer> {
+        @Override
+        public String itemName(Integer item) {
+            return "item " + item;
+        }
+
+        @Override
+        public long itemSize(Integer item) {
+            return 0;
+        }
+    }
+
+    @Test
+    public void processAllItemsWithPooledConnections() throws IOException {
+        final Set<Integer> processed = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        final Set<FileSystem> used = Collections.newSetFromMap(new ConcurrentHashMap<FileSystem, Boolean>());
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        final Pipeline.Stage<Integer> stage = pipeline.stage("test", 4, 2, new Worker() {
+            @Override
+            public void processItem(FileSystem fileSystem, Integer item) throws Exception {
+                final int now = concurrent.incrementAndGet();
+                synchronized (maxConcurrent) {
+                    maxConcurrent.set(Math.max(maxConcurrent.get(), now));
+                }
+                used.add(fileSystem);
+                Thread.sleep(1);
+                processed.add(item);
+                concurrent.decrementAndGet();
+            }
+        });
+        for (int i = 0; i < 100; i++) {
+            stage.submit(i);
+        }
+        pipeline.finish();
+        assertEquals(100, processed.size());
+        assertTrue(used.size() <= CONNECTIONS);
+        assertTrue(maxConcurrent.get() <= CONNECTIONS);
+    }
+
+    @Test
+    public void singleThreadKeepsOrder() throws IOException {
+        final List<Integer> processed = Collections.synchronizedList(new ArrayList<Integer>());
+        final Pipeline.Stage<Integer> stage = pipeline.stage("test", 1, 3, new Worker() {
+            @Override
+            public void processItem(FileSystem fileSystem, Integer item) {
+                processed.add(item);
+            }
+        });
+        final List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            stage.submit(i);
+            expected.add(i);
+        }
+        pipeline.finish();
+        assertEquals(expected, processed);
+    }
+
+    @Test
+    public void finishThrowsFirstError() throws IOException {
+        final Pipeline.Stage<Integer> stage = pipeline.stage("test", 2, 10, new Worker() {
+            @Override
+            public void processItem(FileSystem fileSystem, Integer item) throws IOException {
+                if (item == 3) {
+                    throw new IOException("failed " + item);
+                }
+            }
+        });
+        for (int i = 0; i < 5; i++) {
+            stage.submit(i);
+        }
+        try {
+            pipeline.finish();
+            fail("Expected error");
+        } catch (IOException e) {
+            assertEquals("failed 3", e.getMessage());
+        }
+    }
+
+    @Test
+    public void submitFailsAfterError() throws IOException {
+        final Pipeline.Stage<Integer> stage = pipeline.stage("test", 1, 1, new Worker() {
+            @Override
+            public void processItem(FileSystem fileSystem, Integer item) throws IOException {
+                throw new IOException("failed " + item);
+            }
+        });
+        try {
+            for (int i = 0; i < 1000; i++) {
+                stage.submit(i);
+                Thread.sleep(1);
+            }
+            fail("Expected error");
+        } catch (IOException e) {
+            assertEquals("failed 0", e.getMessage());
+        } catch (InterruptedException e) {
+            fail("Interrupted");
+        }
+    }
+
+    @Test
+    public void abortDropsWaitingItems() throws IOException {
+        final AtomicInteger processed = new AtomicInteger();
+        final Pipeline.Stage<Integer> stage = pipeline.stage("test", 1, 100, new Worker() {
+            @Override
+            public void processItem(FileSystem fileSystem, Integer item) throws Exception {
+                Thread.sleep(50);
+                processed.incrementAndGet();
+            }
+        });
+        for (int i = 0; i < 20; i++) {
+            stage.submit(i);
+        }
+        pipeline.abort();
+        assertTrue(processed.get() < 20);
+        try {
+            pipeline.finish();
+            fail("Expected error");
+        } catch (IOException e) {
+            //aborted
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class StateFileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static SortedMap<String, FileState> entries(int count) {
+        final SortedMap<String, FileState> entries = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            entries.put("/dir" + (i % 7) + "/file" + i + "-\u00e4\u00f6", new FileState(i * 31L, i, 1000L + i, i * 7L));
+        }
+        entries.put("/dir0", FileState.directory());
+        return entries;
+    }
+
+    @Test
+    public void writeAndRead() throws IOException {
+        final File file = folder.newFile();
+        final SortedMap<String, FileState> entries = entries(100);
+        StateFile.write(file, entries.entrySet().iterator());
+
+        try (final StateFile state = StateFile.open(file)) {
+            assertTrue(state.isCurrentFormat());
+            assertEquals(entries.size(), state.size());
+            for (Map.Entry<String, FileState> entry : entries.entrySet()) {
+                assertEquals(entry.getKey(), entry.getValue(), state.get(entry.getKey()));
+            }
+            assertNull(state.get("/dir0/file"));
+            assertNull(state.get("/zzz"));
+            assertEquals(new ArrayList<>(entries.entrySet()), list(state.iterator()));
+        }
+    }
+
+    @Test
+    public void iterateFrom() throws IOException {
+        final File file = folder.newFile();
+        final SortedMap<String, FileState> entries = entries(100);
+        StateFile.write(file, entries.entrySet().iterator());
+
+        try (final StateFile state = StateFile.open(file)) {
+            for (String from : Arrays.asList("", "/dir3", "/dir3/file", "/dir3/file52-\u00e4\u00f6", "/dir4/", "/zzz")) {
+                assertEquals(from, new ArrayList<>(entries.tailMap(from).entrySet()), list(state.iterator(from)));
+            }
+        }
+    }
+
+    @Test
+    public void sharedPrefixDoesNotSplitSurrogatePairs() throws IOException {
+        final File file = folder.newFile();
+        final SortedMap<String, FileState> entries = new TreeMap<>();
+        for (String name : Arrays.asList("/\ud83d\ude00", "/\ud83d\ude01", "/\ud83d\ude01/\ud83d\ude00", "/\ud83d\ude02")) {
+            entries.put(name, new FileState(name.hashCode(), 1, 2, 3));
+        }
+        StateFile.write(file, entries.entrySet().iterator());
+
+        try (final StateFile state = StateFile.open(file)) {
+            for (Map.Entry<String, FileState> entry : entries.entrySet()) {
+                assertEquals(entry.getKey(), entry.getValue(), state.get(entry.getKey()));
+            }
+            assertEquals(new ArrayList<>(entries.entrySet()), list(state.iterator()));
+        }
+    }
+
+    @Test
+    public void replaceWhileOpen() throws IOException {
+        final File file = folder.newFile();
+        StateFile.write(file, entries(100).entrySet().iterator());
+        try (final StateFile state = StateFile.open(file)) {
+            StateFile.write(file, entries(10).entrySet().iterator());
+            assertEquals(101, state.size());
+            assertEquals(new FileState(31L * 50, 50, 1050, 7L * 50), state.get("/dir1/file50-\u00e4\u00f6"));
+        }
+        try (final StateFile state = StateFile.open(file)) {
+            assertEquals(11, state.size());
+        }
+    }
+
+    @Test
+    public void empty() throws IOException {
+        final File file = folder.newFile();
+        StateFile.write(file, Collections.<Map.Entry<String, FileState>>emptyIterator());
+
+        try (final StateFile state = StateFile.open(file)) {
+            assertEquals(0, state.size());
+            assertFalse(state.iterator().hasNext());
+            assertNull(state.get("/a"));
+        }
+    }
+
+    @Test
+    public void readOldTextFormat() throws IOException {
+        final File file = folder.newFile();
+        try (final Writer out = new OutputStreamWriter(new java.io.FileOutputStream(file), "utf-8")) {
+            out.write("#ftpsync 2\n");
+            out.write(String.format("%016x %016x %016x %016x %s\n", 1L, 2L, 3L, 4L, "/a"));
+            out.write(String.format("%016x %016x %016x %016x %s\n", -1L, 5L, 6L, 7L, "/b c"));
+        }
+
+        try (final StateFile state = StateFile.open(file)) {
+            assertFalse(state.isCurrentFormat());
+            assertEquals(2, state.size());
+            assertEquals(new FileState(1, 2, 3, 4), state.get("/a"));
+            assertEquals(new FileState(-1, 5, 6, 7), state.get("/b c"));
+        }
+    }
+
+    private static List<Map.Entry<String, FileState>> list(Iterator<Map.Entry<String, FileState>> iter) {
+        final List<Map.Entry<String, FileState>> res = new ArrayList<>();
+        while (iter.hasNext()) {
+            final Map.Entry<String, FileState> entry = iter.next();
+            res.add(new AbstractMap.SimpleEntry<>(entry.getKey(), entry.getValue()));
+        }
+        return res;
+    }
+}
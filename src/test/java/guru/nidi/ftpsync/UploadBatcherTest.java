@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class UploadBatcherTest {
+    private final List<Upload> singles = new ArrayList<>();
+    private final List<List<Upload>> batches = new ArrayList<>();
+    private final UploadBatcher batcher = new UploadBatcher(new Pipeline.Input<Upload>() {
+        @Override
+        public void submit(Upload item) {
+            singles.add(item);
+        }
+    }, new Pipeline.Input<List<Upload>>() {
+        @Override
+        public void submit(List<Upload> item) {
+            batches.add(item);
+        }
+    });
+
+    private static Upload upload(String name, long size, long offset) {
+        return new Upload(name, new File(name), offset, new FileState(1, size, 2, 3), 2);
+    }
+
+    @Test
+    public void batchSmallFiles() throws Exception {
+        final Upload a = upload("/a", 100, 0);
+        final Upload b = upload("/b", 200, 0);
+        batcher.submit(a);
+        batcher.submit(b);
+        assertTrue(batches.isEmpty());
+        batcher.flush();
+        assertEquals(1, batches.size());
+        assertEquals(a, batches.get(0).get(0));
+        assertEquals(b, batches.get(0).get(1));
+        assertTrue(singles.isEmpty());
+        batcher.flush();
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    public void passLargeAndContinuedFiles() throws Exception {
+        final Upload large = upload("/large", 10 * 1024 * 1024, 0);
+        final Upload continued = upload("/continued", 100, 50);
+        batcher.submit(large);
+        batcher.submit(continued);
+        batcher.flush();
+        assertEquals(2, singles.size());
+        assertTrue(batches.isEmpty());
+    }
+
+    @Test
+    public void limitFilesPerBatch() throws Exception {
+        for (int i = 0; i < 2500; i++) {
+            batcher.submit(upload("/f" + i, 10, 0));
+        }
+        assertEquals(2, batches.size());
+        batcher.flush();
+        assertEquals(3, batches.size());
+        assertEquals(1000, batches.get(0).size());
+        assertEquals(500, batches.get(2).size());
+    }
+
+    @Test
+    public void limitBytesPerBatch() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            batcher.submit(upload("/f" + i, 200 * 1024, 0));
+        }
+        batcher.flush();
+        for (List<Upload> batch : batches) {
+            long bytes = 0;
+            for (Upload upload : batch) {
+                bytes += upload.getState().getSize();
+            }
+            assertTrue(bytes < 16 * 1024 * 1024 + 200 * 1024);
+        }
+        assertEquals(2, batches.size());
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class UploadSchedulerTest {
+    private final List<Upload> submitted = new ArrayList<>();
+    private final Pipeline.Input<Upload> target = new Pipeline.Input<Upload>() {
+        @Override
+        public void submit(Upload item) {
+            submitted.add(item);
+        }
+    };
+
+    private final Upload small = upload("/small", 100, 0, 1000);
+    private final Upload appended = upload("/appended", 1000, 950, 4000);
+    private final Upload large = upload("/large", 500, 0, 3000);
+    private final Upload old = upload("/old", 300, 0, 2000);
+
+    private static Upload upload(String name, long size, long offset, long modified) {
+        //the file does not exist, its modification time must not be looked up
+        return new Upload(name, new File(name), offset, new FileState(1, size, 2, 3), modified);
+    }
+
+    private List<Upload> schedule(UploadScheduler.Policy policy) throws IOException {
+        final UploadScheduler scheduler = new UploadScheduler(target, policy);
+        for (Upload upload : Arrays.asList(small, appended, large, old)) {
+            scheduler.submit(upload);
+        }
+        assertTrue(submitted.isEmpty());
+        scheduler.flush();
+        return submitted;
+    }
+
+    @Test
+    public void largest() throws IOException {
+        assertEquals(Arrays.asList(large, old, small, appended), schedule(UploadScheduler.Policy.LARGEST));
+    }
+
+    @Test
+    public void smallest() throws IOException {
+        assertEquals(Arrays.asList(appended, small, old, large), schedule(UploadScheduler.Policy.SMALLEST));
+    }
+
+    @Test
+    public void recent() throws IOException {
+        assertEquals(Arrays.asList(appended, large, old, small), schedule(UploadScheduler.Policy.RECENT));
+    }
+
+    @Test
+    public void flushPassesEveryUploadOnce() throws IOException {
+        final UploadScheduler scheduler = new UploadScheduler(target, UploadScheduler.Policy.RECENT);
+        scheduler.submit(small);
+        scheduler.flush();
+        scheduler.flush();
+        assertEquals(Arrays.asList(small), submitted);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class WatcherTest {
+    private static final long TIMEOUT = 10000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+    private Watcher watcher;
+
+    @Before
+    public void setUp() throws IOException {
+        root = folder.getRoot();
+        assertTrue(new File(root, "a").mkdir());
+        watcher = new Watcher(root.getPath());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        watcher.close();
+    }
+
+    private Set<String> changed() throws IOException {
+        return watcher.changedDirectories(System.currentTimeMillis() + TIMEOUT);
+    }
+
+    @Test
+    public void nothingChanged() throws IOException {
+        assertNull(watcher.changedDirectories(System.currentTimeMillis() + 100));
+    }
+
+    @Test
+    public void coalesceChanges() throws IOException {
+        Files.write(new File(root, "a/x.txt").toPath(), new byte[]{1});
+        Files.write(new File(root, "a/y.txt").toPath(), new byte[]{2});
+        Files.write(new File(root, "z.txt").toPath(), new byte[]{3});
+        assertEquals(new HashSet<>(Arrays.asList("/", "/a")), changed());
+    }
+
+    @Test
+    public void watchNewDirectories() throws IOException {
+        assertTrue(new File(root, "a/b").mkdir());
+        assertEquals(new HashSet<>(Arrays.asList("/a")), changed());
+        Files.write(new File(root, "a/b/x.txt").toPath(), new byte[]{1});
+        assertEquals(new HashSet<>(Arrays.asList("/a/b")), changed());
+    }
+
+    @Test
+    public void reportDeletions() throws IOException {
+        final File file = new File(root, "a/x.txt");
+        Files.write(file.toPath(), new byte[]{1});
+        changed();
+        assertTrue(file.delete());
+        assertEquals(new HashSet<>(Arrays.asList("/a")), changed());
+    }
+}
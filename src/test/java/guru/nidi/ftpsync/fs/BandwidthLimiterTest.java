@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync.fs;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class BandwidthLimiterTest {
+    private static int minute(int hour, int minute) {
+        return hour * 60 + minute;
+    }
+
+    private static void assertInvalid(String spec) {
+        try {
+            BandwidthLimiter.parse(spec);
+            fail("Should not parse '" + spec + "'");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void suffixes() {
+        assertEquals(500, BandwidthLimiter.parse("500").rateAt(0));
+        assertEquals(200 * 1024, BandwidthLimiter.parse("200k").rateAt(0));
+        assertEquals(3 * 1024 * 1024, BandwidthLimiter.parse("3M").rateAt(0));
+        assertEquals(2L * 1024 * 1024 * 1024, BandwidthLimiter.parse("2g").rateAt(0));
+        assertEquals(0, BandwidthLimiter.parse("0").rateAt(0));
+    }
+
+    @Test
+    public void windows() {
+        final BandwidthLimiter limiter = BandwidthLimiter.parse("08:00-18:00=200k, 18:00-22:30=1m, 5");
+        assertEquals(5, limiter.rateAt(minute(7, 59)));
+        assertEquals(200 * 1024, limiter.rateAt(minute(8, 0)));
+        assertEquals(200 * 1024, limiter.rateAt(minute(17, 59)));
+        assertEquals(1024 * 1024, limiter.rateAt(minute(18, 0)));
+        assertEquals(1024 * 1024, limiter.rateAt(minute(22, 29)));
+        assertEquals(5, limiter.rateAt(minute(22, 30)));
+    }
+
+    @Test
+    public void unlimitedOutsideOfWindows() {
+        final BandwidthLimiter limiter = BandwidthLimiter.parse("8:00-9:00=1k");
+        assertEquals(1024, limiter.rateAt(minute(8, 30)));
+        assertEquals(0, limiter.rateAt(minute(12, 0)));
+    }
+
+    @Test
+    public void windowAcrossMidnight() {
+        final BandwidthLimiter limiter = BandwidthLimiter.parse("22:00-06:00=1m,100k");
+        assertEquals(100 * 1024, limiter.rateAt(minute(21, 59)));
+        assertEquals(1024 * 1024, limiter.rateAt(minute(22, 0)));
+        assertEquals(1024 * 1024, limiter.rateAt(minute(23, 59)));
+        assertEquals(1024 * 1024, limiter.rateAt(minute(0, 0)));
+        assertEquals(1024 * 1024, limiter.rateAt(minute(5, 59)));
+        assertEquals(100 * 1024, limiter.rateAt(minute(6, 0)));
+    }
+
+    @Test
+    public void windowUntilMidnight() {
+        final BandwidthLimiter limiter = BandwidthLimiter.parse("20:00-24:00=1k");
+        assertEquals(1024, limiter.rateAt(minute(23, 59)));
+        assertEquals(0, limiter.rateAt(minute(0, 0)));
+    }
+
+    @Test
+    public void firstOverlappingWindowApplies() {
+        final BandwidthLimiter limiter = BandwidthLimiter.parse("08:00-12:00=1k,10:00-14:00=2k");
+        assertEquals(1024, limiter.rateAt(minute(9, 0)));
+        assertEquals(1024, limiter.rateAt(minute(11, 0)));
+        assertEquals(2048, limiter.rateAt(minute(12, 0)));
+        assertEquals(2048, limiter.rateAt(minute(13, 59)));
+    }
+
+    @Test
+    public void malformed() {
+        assertInvalid("");
+        assertInvalid("fast");
+        assertInvalid("10x");
+        assertInvalid("-1");
+        assertInvalid("1.5m");
+        assertInvalid("08:00-18:00");
+        assertInvalid("08:00-18:00=");
+        assertInvalid("25:00-26:00=1k");
+        assertInvalid("24:01-01:00=1k");
+        assertInvalid("08:60-09:00=1k");
+        assertInvalid("99999999999999999999");
+    }
+
+    @Test
+    public void unlimitedDoesNotWait() throws IOException {
+        final long start = System.nanoTime();
+        BandwidthLimiter.parse("0").transferred(1L << 40);
+        assertTrue(System.nanoTime() - start < 500000000L);
+    }
+
+    @Test
+    public void waitForTheAllowedRate() throws IOException {
+        final BandwidthLimiter limiter = BandwidthLimiter.parse("1m");
+        final long start = System.nanoTime();
+        limiter.transferred(512 * 1024);
+        assertTrue(System.nanoTime() - start >= 400000000L);
+    }
+}
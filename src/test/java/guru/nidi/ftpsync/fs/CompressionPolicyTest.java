@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync.fs;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class CompressionPolicyTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file(String name, int size) throws IOException {
+        final File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), new byte[size]);
+        return file;
+    }
+
+    @Test
+    public void skipSmallFiles() throws IOException {
+        final CompressionPolicy policy = new CompressionPolicy(100, CompressionPolicy.DEFAULT_SKIPPED);
+        assertFalse(policy.shouldCompress(file("small.txt", 99)));
+        assertTrue(policy.shouldCompress(file("large.txt", 100)));
+    }
+
+    @Test
+    public void skipCompressedFormats() throws IOException {
+        final CompressionPolicy policy = new CompressionPolicy(0, CompressionPolicy.DEFAULT_SKIPPED);
+        assertFalse(policy.shouldCompress(file("image.jpg", 10)));
+        assertFalse(policy.shouldCompress(file("IMAGE.PNG", 10)));
+        assertFalse(policy.shouldCompress(file("archive.tar.gz", 10)));
+        assertTrue(policy.shouldCompress(file("archive.tar", 10)));
+        assertTrue(policy.shouldCompress(file("README", 10)));
+    }
+
+    @Test
+    public void customExtensions() throws IOException {
+        final CompressionPolicy policy = new CompressionPolicy(0, Arrays.asList("BIN", "dat"));
+        assertFalse(policy.shouldCompress(file("a.bin", 10)));
+        assertFalse(policy.shouldCompress(file("a.DAT", 10)));
+        assertTrue(policy.shouldCompress(file("a.jpg", 10)));
+    }
+}
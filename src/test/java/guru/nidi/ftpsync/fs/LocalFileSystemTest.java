@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync.fs;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class LocalFileSystemTest {
+    private static final AbstractFileFilter ALL = new AbstractFileFilter() {
+        @Override
+        public boolean accept(AbstractFile file) {
+            return true;
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File base;
+    private LocalFileSystem fs;
+
+    @Before
+    public void setUp() throws IOException {
+        base = folder.newFolder("base");
+        fs = new LocalFileSystem(base.getPath());
+    }
+
+    private File file(String name) throws IOException {
+        final File file = new File(base, name);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), name.getBytes("utf-8"));
+        return file;
+    }
+
+    private static Map<String, AbstractFile> byName(List<AbstractFile> files) {
+        final Map<String, AbstractFile> res = new HashMap<>();
+        for (AbstractFile file : files) {
+            res.put(file.getName(), file);
+        }
+        return res;
+    }
+
+    @Test
+    public void listFilesWithAttributes() throws IOException {
+        final File c = file("a/c.txt");
+        file("a/b/d.txt");
+        final Map<String, AbstractFile> listed = byName(fs.listFiles("/a", ALL));
+        assertEquals(new HashSet<>(Arrays.asList("b", "c.txt")), listed.keySet());
+
+        final AbstractFile file = listed.get("c.txt");
+        assertTrue(file.isFile());
+        assertFalse(file.isDirectory());
+        assertEquals(c.length(), file.getSize());
+        assertEquals(c.lastModified(), file.getModified());
+        assertNotNull(file.getFileKey());
+        assertEquals(c, file.asFile());
+
+        final AbstractFile dir = listed.get("b");
+        assertTrue(dir.isDirectory());
+        assertFalse(dir.isFile());
+    }
+
+    @Test
+    public void listFilesWithFilter() throws IOException {
+        file("a.txt");
+        file("b.bin");
+        final List<AbstractFile> listed = fs.listFiles("/", new AbstractFileFilter() {
+            @Override
+            public boolean accept(AbstractFile file) {
+                return file.getName().endsWith(".txt");
+            }
+        });
+        assertEquals(Arrays.asList("a.txt"), new ArrayList<>(byName(listed).keySet()));
+    }
+
+    @Test
+    public void listMissingOrFile() throws IOException {
+        file("a.txt");
+        assertTrue(fs.listFiles("/missing", ALL).isEmpty());
+        assertTrue(fs.listFiles("/a.txt", ALL).isEmpty());
+    }
+
+    @Test
+    public void deleteTree() throws IOException {
+        file("a/b/c.txt");
+        file("a/d.txt");
+        file("e.txt");
+        fs.deleteTree("/a/");
+        assertFalse(new File(base, "a").exists());
+        assertTrue(new File(base, "e.txt").exists());
+    }
+
+    @Test
+    public void deleteTreeDoesNotFollowLinks() throws IOException {
+        final File outside = folder.newFolder("outside");
+        final File kept = new File(outside, "kept.txt");
+        Files.write(kept.toPath(), new byte[]{1});
+        file("a/b.txt");
+        Files.createSymbolicLink(new File(base, "a/link").toPath(), outside.toPath());
+        fs.deleteTree("/a/");
+        assertFalse(new File(base, "a").exists());
+        assertTrue(kept.exists());
+    }
+
+    @Test(expected = IOException.class)
+    public void deleteMissingTreeFails() throws IOException {
+        fs.deleteTree("/missing/");
+    }
+}
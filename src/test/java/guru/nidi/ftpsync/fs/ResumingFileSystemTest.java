@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync.fs;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ResumingFileSystemTest {
+    private static final int LARGE = (int) ResumingFileSystem.RESUMABLE_SIZE + 500 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Simulation simulation = new Simulation(0, 0, 0);
+    private final List<Long> offsets = new ArrayList<>();
+    private int failBefore;
+    private int failAfterHalf;
+    private ResumingFileSystem fs;
+
+    /**
+     * Fails uploads before anything is written, like a connection breaking before the server truncated the file,
+     * or after half of the data has been written.
+     */
+    private class FailingFileSystem extends SimulatedFileSystem {
+        FailingFileSystem() {
+            super("", simulation);
+        }
+
+        @Override
+        public void putFile(File local, String dest, long offset) throws IOException {
+            offsets.add(offset);
+            if (failBefore > 0) {
+                failBefore--;
+                throw new IOException("Connection reset");
+            }
+            if (failAfterHalf > 0) {
+                failAfterHalf--;
+                final byte[] data = Files.readAllBytes(local.toPath());
+                final File half = folder.newFile();
+                Files.write(half.toPath(), Arrays.copyOf(data, data.length / 2));
+                super.putFile(half, dest, offset);
+                throw new IOException("Connection reset");
+            }
+            super.putFile(local, dest, offset);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        fs = new ResumingFileSystem(new FileSystemFactory() {
+            @Override
+            public FileSystem create() {
+                return new FailingFileSystem();
+            }
+        }, 1);
+    }
+
+    private File file(int size, int seed) throws IOException {
+        final byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        final File file = folder.newFile();
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    private void assertRemote(File expected, String dest) throws IOException {
+        final File actual = folder.newFile();
+        fs.getFile(actual, dest);
+        assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()));
+    }
+
+    @Test
+    public void continueAfterPartialUpload() throws IOException {
+        final File local = file(LARGE, 1);
+        failAfterHalf = 1;
+        fs.putFile(local, "/a");
+        assertRemote(local, "/a");
+        assertEquals(Arrays.asList(0L, (long) LARGE / 2), offsets);
+    }
+
+    @Test
+    public void doNotAppendToOldContent() throws IOException {
+        fs.putFile(file(LARGE - 100 * 1024, 2), "/a");
+        offsets.clear();
+        final File local = file(LARGE, 3);
+        failBefore = 1;
+        fs.putFile(local, "/a");
+        assertRemote(local, "/a");
+        assertEquals(Arrays.asList(0L, 0L), offsets);
+    }
+
+    @Test
+    public void startSmallFilesOver() throws IOException {
+        fs.putFile(file(1000, 4), "/a");
+        offsets.clear();
+        final File local = file(2000, 5);
+        failAfterHalf = 1;
+        fs.putFile(local, "/a");
+        assertRemote(local, "/a");
+        assertEquals(Arrays.asList(0L, 0L), offsets);
+    }
+
+    @Test
+    public void continueAfterKnownPrefix() throws IOException {
+        final File local = file(LARGE, 6);
+        final File prefix = folder.newFile();
+        Files.write(prefix.toPath(), Arrays.copyOf(Files.readAllBytes(local.toPath()), 1000));
+        fs.putFile(prefix, "/a");
+        offsets.clear();
+        failAfterHalf = 1;
+        fs.putFile(local, "/a", 1000);
+        assertRemote(local, "/a");
+        assertEquals(Arrays.asList(1000L, (long) LARGE / 2), offsets);
+    }
+
+    @Test(expected = IOException.class)
+    public void giveUpAfterAttempts() throws IOException {
+        failBefore = 10;
+        fs.putFile(file(1000, 7), "/a");
+    }
+}
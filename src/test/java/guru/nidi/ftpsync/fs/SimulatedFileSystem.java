@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync.fs;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+import static guru.nidi.ftpsync.fs.Simulation.Node;
+import static guru.nidi.ftpsync.fs.Simulation.Operation.*;
+
+/**
+ * A connection to a {@link Simulation}. The files are kept in memory.
+ */
+public class SimulatedFileSystem extends FileSystemBase {
+    private final Simulation simulation;
+
+    public SimulatedFileSystem(String basedir, Simulation simulation) {
+        super(basedir);
+        this.simulation = simulation;
+    }
+
+    private String path(String name) {
+        final String path = expand(name);
+        return path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    private static String parent(String path) {
+        final int slash = path.lastIndexOf('/');
+        return slash <= 0 ? "/" : path.substring(0, slash);
+    }
+
+    private Node node(String path) throws FileNotFoundException {
+        final Node node = simulation.nodes.get(path);
+        if (node == null) {
+            throw new FileNotFoundException(path);
+        }
+        return node;
+    }
+
+    private void checkParent(String path) throws IOException {
+        if (!node(parent(path)).directory) {
+            throw new IOException("Not a directory: " + parent(path));
+        }
+    }
+
+    /**
+     * @return the entries below the directory, without the directory itself.
+     */
+    private SortedMap<String, Node> below(String path) {
+        final String prefix = path.equals("/") ? "/" : path + "/";
+        return simulation.nodes.subMap(prefix, false, prefix.substring(0, prefix.length() - 1) + "0", false);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void deleteFile(String name) throws IOException {
+        simulation.roundTrip(DELETE);
+        final String path = path(name);
+        if (node(path).directory) {
+            throw new IOException("Is a directory: " + path);
+        }
+        simulation.nodes.remove(path);
+    }
+
+    @Override
+    public void deleteDirectory(String name) throws IOException {
+        simulation.roundTrip(DELETE);
+        final String path = path(name);
+        if (!node(path).directory) {
+            throw new IOException("Not a directory: " + path);
+        }
+        if (!below(path).isEmpty()) {
+            throw new IOException("Directory not empty: " + path);
+        }
+        simulation.nodes.remove(path);
+    }
+
+    @Override
+    public boolean canDeleteTree() {
+        return simulation.isTreeDeletion();
+    }
+
+    @Override
+    public void deleteTree(String name) throws IOException {
+        simulation.roundTrip(DELETE);
+        final String path = path(name);
+        node(path);
+        below(path).clear();
+        simulation.nodes.remove(path);
+    }
+
+    @Override
+    public void putFile(File local, String dest) throws IOException {
+        putFile(local, dest, 0);
+    }
+
+    @Override
+    public void putFile(File local, String dest, long offset) throws IOException {
+        simulation.roundTrip(PUT);
+        final String path = path(dest);
+        checkParent(path);
+        final byte[] data = Files.readAllBytes(local.toPath());
+        simulation.transfer(PUT, data.length - offset);
+        final Node old = simulation.nodes.get(path);
+        if (offset > 0 && (old == null || old.directory || old.data.length < offset || data.length < offset)) {
+            throw new IOException("Cannot continue upload at " + offset + ": " + path);
+        }
+        if (offset > 0) {
+            //like an append, whatever the remote file contains before the offset is kept
+            System.arraycopy(old.data, 0, data, 0, (int) offset);
+        }
+        simulation.nodes.put(path, new Node(false, data));
+    }
+
+    @Override
+    public boolean canPutFiles() {
+        return simulation.isBulkUpload();
+    }
+
+    @Override
+    public void putFiles(List<File> locals, List<String> dests) throws IOException {
+        simulation.roundTrip(PUT);
+        for (int i = 0; i < locals.size(); i++) {
+            final String path = path(dests.get(i));
+            checkParent(path);
+            final byte[] data = Files.readAllBytes(locals.get(i).toPath());
+            simulation.transfer(PUT, data.length);
+            simulation.nodes.put(path, new Node(false, data));
+        }
+    }
+
+    @Override
+    public long getSize(String name) throws IOException {
+        simulation.roundTrip(SIZE);
+        return simulation.getSize(path(name));
+    }
+
+    @Override
+    public void getFile(File local, String dest) throws IOException {
+        simulation.roundTrip(GET);
+        final Node node = node(path(dest));
+        simulation.transfer(GET, node.data.length);
+        Files.write(local.toPath(), node.data);
+    }
+
+    @Override
+    public void createDirectory(String name) throws IOException {
+        simulation.roundTrip(MKDIR);
+        final String path = path(name);
+        checkParent(path);
+        if (simulation.nodes.putIfAbsent(path, new Node(true, null)) != null) {
+            throw new IOException("Exists already: " + path);
+        }
+    }
+
+    @Override
+    public boolean canHashFiles() {
+        return simulation.isHashing();
+    }
+
+    @Override
+    public Map<String, String> hashFiles(String dir) throws IOException {
+        final Map<String, String> res = new HashMap<>();
+        for (AbstractFile file : listFiles(dir, new AbstractFileFilter() {
+            @Override
+            public boolean accept(AbstractFile file) {
+                return file.isFile();
+            }
+        })) {
+            res.put(file.getName(), hashFile((dir.endsWith("/") ? dir : dir + "/") + file.getName(), Long.MAX_VALUE));
+        }
+        return res;
+    }
+
+    @Override
+    public String hashFile(String name, long length) throws IOException {
+        if (!simulation.isHashing()) {
+            throw new UnsupportedOperationException("Remote hashing is not enabled");
+        }
+        simulation.roundTrip(HASH);
+        final Node node = node(path(name));
+        if (node.directory) {
+            throw new IOException("Not a file: " + name);
+        }
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+        digest.update(node.data, 0, (int) Math.min(length, node.data.length));
+        final StringBuilder s = new StringBuilder();
+        for (byte b : digest.digest()) {
+            s.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return s.toString();
+    }
+
+    /**
+     * The listing is transferred with about 64 bytes per entry.
+     */
+    @Override
+    public List<AbstractFile> listFiles(String dir, AbstractFileFilter filter) throws IOException {
+        simulation.roundTrip(LIST);
+        final String path = path(dir);
+        if (!node(path).directory) {
+            throw new IOException("Not a directory: " + path);
+        }
+        final List<AbstractFile> res = new ArrayList<>();
+        final String prefix = path.equals("/") ? "/" : path + "/";
+        final SortedMap<String, Node> below = below(path);
+        int count = 0;
+        Map.Entry<String, Node> entry = simulation.nodes.higherEntry(prefix);
+        while (entry != null && below.containsKey(entry.getKey())) {
+            final String rest = entry.getKey().substring(prefix.length());
+            final int slash = rest.indexOf('/');
+            if (slash < 0) {
+                count++;
+                final AbstractFile file = new AbstractFileImpl(rest, entry.getValue());
+                if (filter.accept(file)) {
+                    res.add(file);
+                }
+                entry = simulation.nodes.higherEntry(entry.getKey());
+            } else {
+                //skip the contents of the subdirectory, '0' is the character following '/'
+                entry = simulation.nodes.ceilingEntry(prefix + rest.substring(0, slash) + "0");
+            }
+        }
+        simulation.transfer(LIST, 64L * count);
+        return res;
+    }
+
+    private static class AbstractFileImpl implements AbstractFile {
+        private final String name;
+        private final Node node;
+
+        AbstractFileImpl(String name, Node node) {
+            this.name = name;
+            this.node = node;
+        }
+
+        @Override
+        public boolean isFile() {
+            return !node.directory;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return node.directory;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public long getSize() {
+            return node.directory ? 0 : node.data.length;
+        }
+
+        @Override
+        public long getModified() {
+            return node.modified;
+        }
+
+        @Override
+        public Object getFileKey() {
+            return null;
+        }
+
+        @Override
+        public File asFile() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
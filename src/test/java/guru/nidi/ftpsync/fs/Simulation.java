@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync.fs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A simulated remote server with the network link to it, shared by all {@link SimulatedFileSystem} connections.
+ * Every operation costs one round trip with a configurable latency and can fail randomly.
+ * Transferred data additionally takes the time given by the bandwidth of the link, which is shared by all connections.
+ * The round trips and bytes are counted per operation.
+ */
+public class Simulation {
+    public enum Operation {
+        LIST, PUT, GET, SIZE, DELETE, MKDIR, HASH
+    }
+
+    static class Node {
+        final boolean directory;
+        final byte[] data;
+        final long modified;
+
+        Node(boolean directory, byte[] data) {
+            this.directory = directory;
+            this.data = data;
+            modified = System.currentTimeMillis();
+        }
+    }
+
+    final ConcurrentSkipListMap<String, Node> nodes = new ConcurrentSkipListMap<>();
+    private final long latency;
+    private final long jitter;
+    private final long bandwidth;
+    private final Map<Operation, Long> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, Double> failureRates = new EnumMap<>(Operation.class);
+    private final Map<Operation, AtomicLong> roundTrips = new EnumMap<>(Operation.class);
+    private final Map<Operation, AtomicLong> bytes = new EnumMap<>(Operation.class);
+    private final AtomicLong failures = new AtomicLong();
+    private final Random random = new Random();
+    private boolean treeDeletion;
+    private boolean bulkUpload;
+    private boolean hashing;
+    private long linkFreeAt;
+
+    /**
+     * @param latency   the time of a round trip in milliseconds.
+     * @param jitter    the maximum random deviation from the latency in milliseconds.
+     * @param bandwidth bytes per second, 0 for unlimited.
+     */
+    public Simulation(long latency, long jitter, long bandwidth) {
+        this.latency = latency;
+        this.jitter = jitter;
+        this.bandwidth = bandwidth;
+        for (Operation op : Operation.values()) {
+            roundTrips.put(op, new AtomicLong());
+            bytes.put(op, new AtomicLong());
+        }
+        nodes.put("/", new Node(true, null));
+    }
+
+    public void setLatency(Operation operation, long latency) {
+        latencies.put(operation, latency);
+    }
+
+    /**
+     * @param rate the probability that an operation fails, between 0 and 1.
+     */
+    public void setFailureRate(Operation operation, double rate) {
+        failureRates.put(operation, rate);
+    }
+
+    /**
+     * Simulates a server that can delete a directory with all its contents in one operation.
+     */
+    public void setTreeDeletion(boolean treeDeletion) {
+        this.treeDeletion = treeDeletion;
+    }
+
+    /**
+     * Simulates a server that can receive many files in one operation.
+     */
+    public void setBulkUpload(boolean bulkUpload) {
+        this.bulkUpload = bulkUpload;
+    }
+
+    /**
+     * Simulates a server that can calculate the checksums of files.
+     */
+    public void setHashing(boolean hashing) {
+        this.hashing = hashing;
+    }
+
+    public boolean isTreeDeletion() {
+        return treeDeletion;
+    }
+
+    public boolean isBulkUpload() {
+        return bulkUpload;
+    }
+
+    public boolean isHashing() {
+        return hashing;
+    }
+
+    public long getRoundTrips(Operation operation) {
+        return roundTrips.get(operation).get();
+    }
+
+    public long getRoundTrips() {
+        long sum = 0;
+        for (AtomicLong count : roundTrips.values()) {
+            sum += count.get();
+        }
+        return sum;
+    }
+
+    public long getBytes(Operation operation) {
+        return bytes.get(operation).get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return the size of the file or -1 if it does not exist.
+     */
+    public long getSize(String path) {
+        final Node node = nodes.get(path);
+        return node == null || node.directory ? -1 : node.data.length;
+    }
+
+    /**
+     * Forgets the counted round trips, bytes and failures.
+     */
+    public void resetCounters() {
+        for (Operation op : Operation.values()) {
+            roundTrips.get(op).set(0);
+            bytes.get(op).set(0);
+        }
+        failures.set(0);
+    }
+
+    /**
+     * @return the counters as text, one line per operation.
+     */
+    public String report() {
+        final StringBuilder s = new StringBuilder();
+        for (Operation op : Operation.values()) {
+            s.append(String.format("%-6s %10d round trips %14d bytes%n", op, getRoundTrips(op), getBytes(op)));
+        }
+        s.append(String.format("total  %10d round trips, %d failures", getRoundTrips(), getFailures()));
+        return s.toString();
+    }
+
+    /**
+     * Waits for the round trip of an operation.
+     *
+     * @throws IOException if the operation fails.
+     */
+    void roundTrip(Operation operation) throws IOException {
+        roundTrips.get(operation).incrementAndGet();
+        final Long opLatency = latencies.get(operation);
+        final long base = opLatency == null ? latency : opLatency;
+        final long deviation;
+        final boolean failed;
+        synchronized (random) {
+            deviation = jitter == 0 ? 0 : (long) ((random.nextDouble() * 2 - 1) * jitter);
+            final Double rate = failureRates.get(operation);
+            failed = rate != null && random.nextDouble() < rate;
+        }
+        sleep(Math.max(0, base + deviation));
+        if (failed) {
+            failures.incrementAndGet();
+            throw new IOException("Simulated failure of " + operation);
+        }
+    }
+
+    /**
+     * Waits until the data has passed the link. Concurrent transfers share the bandwidth.
+     */
+    void transfer(Operation operation, long size) throws InterruptedIOException {
+        bytes.get(operation).addAndGet(size);
+        if (bandwidth <= 0 || size == 0) {
+            return;
+        }
+        final long done;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            linkFreeAt = Math.max(now, linkFreeAt) + size * 1000000000L / bandwidth;
+            done = linkFreeAt;
+        }
+        sleep((done - System.nanoTime()) / 1000000);
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while simulating the network");
+        }
+    }
+}
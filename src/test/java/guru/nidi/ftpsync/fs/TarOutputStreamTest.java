@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2014 Stefan Niederhauser (nidin@gmx.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package guru.nidi.ftpsync.fs;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TarOutputStreamTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file(int size) throws IOException {
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        final File file = folder.newFile();
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    /**
+     * Reads the archive back, checking the header checksums and the end marker.
+     *
+     * @return the contents of the files by name, in the order of the archive.
+     */
+    private static Map<String, byte[]> read(byte[] tar) throws IOException {
+        final Map<String, byte[]> files = new LinkedHashMap<>();
+        String longName = null;
+        int pos = 0;
+        while (true) {
+            assertTrue("End of archive missing", pos + 1024 <= tar.length);
+            final byte[] header = Arrays.copyOfRange(tar, pos, pos + 512);
+            if (isZero(header)) {
+                assertTrue(isZero(Arrays.copyOfRange(tar, pos + 512, pos + 1024)));
+                return files;
+            }
+            assertEquals(octal(header, 148, 8), checksum(header));
+            assertEquals("ustar  \0", new String(header, 257, 8, "utf-8"));
+            final int size = (int) octal(header, 124, 12);
+            final byte[] data = Arrays.copyOfRange(tar, pos + 512, pos + 512 + size);
+            pos += 512 + (size + 511) / 512 * 512;
+            if (header[156] == 'L') {
+                longName = new String(data, 0, size - 1, "utf-8");
+            } else {
+                assertEquals('0', header[156]);
+                files.put(longName != null ? longName : name(header), data);
+                longName = null;
+            }
+        }
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long octal(byte[] header, int offset, int length) {
+        final String s = new String(header, offset, length).trim();
+        return Long.parseLong(s.replace("\0", ""), 8);
+    }
+
+    private static long checksum(byte[] header) {
+        long sum = 0;
+        for (int i = 0; i < header.length; i++) {
+            sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xff;
+        }
+        return sum;
+    }
+
+    private static String name(byte[] header) throws IOException {
+        int end = 0;
+        while (end < 100 && header[end] != 0) {
+            end++;
+        }
+        return new String(header, 0, end, "utf-8");
+    }
+
+    @Test
+    public void writeFiles() throws IOException {
+        final File empty = file(0);
+        final File block = file(512);
+        final File odd = file(70001);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final TarOutputStream tar = new TarOutputStream(out)) {
+            tar.putFile("empty", empty);
+            tar.putFile("dir/block", block);
+            tar.putFile("dir/sub/odd \u00e4", odd);
+            tar.finish();
+        }
+        assertEquals(0, out.size() % 512);
+        final Map<String, byte[]> files = read(out.toByteArray());
+        assertEquals(Arrays.asList("empty", "dir/block", "dir/sub/odd \u00e4"), new ArrayList<>(files.keySet()));
+        assertArrayEquals(Files.readAllBytes(empty.toPath()), files.get("empty"));
+        assertArrayEquals(Files.readAllBytes(block.toPath()), files.get("dir/block"));
+        assertArrayEquals(Files.readAllBytes(odd.toPath()), files.get("dir/sub/odd \u00e4"));
+    }
+
+    @Test
+    public void writeLongNames() throws IOException {
+        final StringBuilder name = new StringBuilder();
+        while (name.length() <= 300) {
+            name.append("directory/");
+        }
+        name.append("file");
+        final File file = file(1000);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final TarOutputStream tar = new TarOutputStream(out)) {
+            tar.putFile(name.toString(), file);
+            tar.putFile("short", file);
+            tar.finish();
+        }
+        final Map<String, byte[]> files = read(out.toByteArray());
+        assertEquals(Arrays.asList(name.toString(), "short"), new ArrayList<>(files.keySet()));
+        assertArrayEquals(Files.readAllBytes(file.toPath()), files.get(name.toString()));
+    }
+}